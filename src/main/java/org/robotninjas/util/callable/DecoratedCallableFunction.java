@@ -50,7 +50,7 @@ class DecoratedCallableFunction<V> implements Function<Callable<V>, Callable<V>>
 
     Callable<V> callable = c;
     if (duration.isPresent() && unit.isPresent()) {
-      new Callable<V>() {
+      callable = new Callable<V>() {
         @Override
         public V call() throws Exception {
           return limiter.callWithTimeout(c, duration.get(), unit.get(), true);
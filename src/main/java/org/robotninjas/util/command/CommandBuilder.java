@@ -17,15 +17,33 @@ package org.robotninjas.util.command;
 
 import com.github.rholder.retry.Retryer;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
 import org.robotninjas.util.callable.DecoratedCallableBuilder;
+import org.robotninjas.util.concurrent.SizeEstimator;
+import org.robotninjas.util.concurrent.WeightedSemaphore;
+import org.robotninjas.util.journal.CommandJournal;
+import org.robotninjas.util.pool.AsyncPool;
+import org.robotninjas.util.pool.Lease;
+import org.robotninjas.util.pool.LeasedCallable;
+import org.robotninjas.util.trace.Span;
+import org.robotninjas.util.trace.Traced;
+import org.robotninjas.util.trace.Tracer;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.util.concurrent.Futures.withFallback;
 import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 
@@ -33,6 +51,10 @@ public class CommandBuilder {
 
   private final DecoratedCallableBuilder callableBuilder = DecoratedCallableBuilder.builder();
   private Executor executor = sameThreadExecutor();
+  private Optional<CommandJournal> journal = Optional.absent();
+  private Optional<String> name = Optional.absent();
+  private Optional<WeightedSemaphore> budget = Optional.absent();
+  private SizeEstimator<? super Callable<?>> estimator;
 
   public static CommandBuilder builder() {
     return new CommandBuilder();
@@ -53,28 +75,207 @@ public class CommandBuilder {
     return this;
   }
 
+  /**
+   * The name commands are reported under to the installed {@link Tracer},
+   * defaults to the callable's class name
+   */
+  public CommandBuilder withName(String name) {
+    this.name = Optional.of(checkNotNull(name));
+    return this;
+  }
+
+  /**
+   * Reserve the callable's estimated size from {@code budget} before each
+   * execution and hold it until the command's future completes, executions that
+   * do not fit wait in line without holding a thread. The size is estimated on
+   * every execution, so a callable whose state changes between runs is charged
+   * what it holds at the time. Commands built on an {@link AsyncPool} are
+   * bounded by the pool instead.
+   */
+  public CommandBuilder withBudget(WeightedSemaphore budget, SizeEstimator<? super Callable<?>> estimator) {
+    this.budget = Optional.of(checkNotNull(budget));
+    this.estimator = checkNotNull(estimator);
+    return this;
+  }
+
+  public CommandBuilder withJournal(CommandJournal journal) {
+    this.journal = Optional.of(checkNotNull(journal));
+    return this;
+  }
+
   public <V> AsyncCommand<V> build(final Callable<V> callable, final FutureFallback<V> fallback) {
+    return withTracedFallback(build(callable), nameOf(callable), fallback);
+  }
+
+  public <V> AsyncCommand<V> build(final Callable<V> callable) {
+    final Function<Callable<V>, Callable<V>> f = callableBuilder.build();
+    final String name = nameOf(callable);
+    return budgeted(callable, new AsyncCommand<V>() {
+      @Override
+      public ListenableFuture<V> execute() throws Exception {
+        final Span span = Tracer.get().command(name);
+        Callable<V> c = f.apply(Traced.attempts(name, callable));
+        ListenableFutureTask<V> t = ListenableFutureTask.create(Traced.queued(name, c));
+        executor.execute(t);
+        return Traced.end(span, t);
+      }
+    });
+  }
+
+  /**
+   * Build a command whose every execution is journaled as {@code intent}, the
+   * intent is durable before the callable runs
+   */
+  public <V> AsyncCommand<V> build(final Callable<V> callable, final byte[] intent, final FutureFallback<V> fallback) {
+    return withTracedFallback(build(callable, intent), nameOf(callable), fallback);
+  }
+
+  public <V> AsyncCommand<V> build(final Callable<V> callable, final byte[] intent) {
+    checkState(journal.isPresent(), "no journal configured");
+    return journal.get().journaled(build(callable), intent, executor);
+  }
+
+  /**
+   * Build a command that runs {@code callable} with a resource leased from
+   * {@code pool}. The lease is released once the callable returns, a command
+   * cancelled while the callable is running keeps its lease until then.
+   */
+  public <R, V> AsyncCommand<V> build(final AsyncPool<R> pool, final LeasedCallable<R, V> callable) {
+    checkNotNull(pool);
+    checkNotNull(callable);
     final Function<Callable<V>, Callable<V>> f = callableBuilder.build();
+    final String name = nameOf(callable);
     return new AsyncCommand<V>() {
       @Override
       public ListenableFuture<V> execute() {
-        Callable<V> c = f.apply(callable);
-        ListenableFutureTask<V> t = ListenableFutureTask.create(c);
-        executor.execute(t);
-        return withFallback(t, fallback);
+        final Span span = Tracer.get().command(name);
+        final SettableFuture<V> result = SettableFuture.create();
+        final ListenableFuture<Lease<R>> lease = pool.acquire();
+        result.addListener(new Runnable() {
+          @Override
+          public void run() {
+            if (result.isCancelled()) {
+              lease.cancel(false);
+            }
+          }
+        }, sameThreadExecutor());
+        Futures.addCallback(lease, new FutureCallback<Lease<R>>() {
+          @Override
+          public void onSuccess(Lease<R> leased) {
+            runLeased(name, leased, callable, f, result);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            result.setException(t);
+          }
+        });
+        return Traced.end(span, result);
       }
     };
   }
 
-  public <V> AsyncCommand<V> build(final Callable<V> callable) {
-    final Function<Callable<V>, Callable<V>> f = callableBuilder.build();
+  public <R, V> AsyncCommand<V> build(final AsyncPool<R> pool, final LeasedCallable<R, V> callable, final FutureFallback<V> fallback) {
+    return withTracedFallback(build(pool, callable), nameOf(callable), fallback);
+  }
+
+  private <R, V> void runLeased(String name, final Lease<R> lease, final LeasedCallable<R, V> callable,
+                                Function<Callable<V>, Callable<V>> f, final SettableFuture<V> result) {
+    if (result.isCancelled()) {
+      lease.release();
+      return;
+    }
+
+    final Callable<V> c = Traced.queued(name, f.apply(Traced.attempts(name, new Callable<V>() {
+      @Override
+      public V call() throws Exception {
+        return callable.call(lease.get());
+      }
+    })));
+    // the lease goes back once the callable has returned, not when the result
+    // is cancelled while it may still be using the resource
+    final AtomicBoolean started = new AtomicBoolean();
+    final ListenableFutureTask<V> t = ListenableFutureTask.create(new Callable<V>() {
+      @Override
+      public V call() throws Exception {
+        if (!started.compareAndSet(false, true)) {
+          // cancelled as it started and the lease is already back
+          throw new CancellationException();
+        }
+        try {
+          return c.call();
+        } finally {
+          lease.release();
+        }
+      }
+    });
+    t.addListener(new Runnable() {
+      @Override
+      public void run() {
+        // rejected, or cancelled before it ran
+        if (!started.getAndSet(true)) {
+          lease.release();
+        }
+      }
+    }, sameThreadExecutor());
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          t.cancel(true);
+        }
+      }
+    }, sameThreadExecutor());
+    Futures.addCallback(t, new FutureCallback<V>() {
+      @Override
+      public void onSuccess(V value) {
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable e) {
+        result.setException(e);
+      }
+    });
+
+    try {
+      executor.execute(t);
+    } catch (RuntimeException e) {
+      t.cancel(false);
+      result.setException(e);
+    }
+  }
+
+  private String nameOf(Object callable) {
+    return name.isPresent() ? name.get() : callable.getClass().getName();
+  }
+
+  private static <V> AsyncCommand<V> withTracedFallback(final AsyncCommand<V> command, String name, FutureFallback<V> fallback) {
+    final FutureFallback<V> traced = Traced.fallback(name, fallback);
     return new AsyncCommand<V>() {
       @Override
       public ListenableFuture<V> execute() throws Exception {
-        Callable<V> c = f.apply(callable);
-        ListenableFutureTask<V> t = ListenableFutureTask.create(c);
-        executor.execute(t);
-        return t;
+        return withFallback(command.execute(), traced);
+      }
+    };
+  }
+
+  private <V> AsyncCommand<V> budgeted(final Callable<V> callable, final AsyncCommand<V> command) {
+    if (!budget.isPresent()) {
+      return command;
+    }
+    final WeightedSemaphore semaphore = budget.get();
+    final SizeEstimator<? super Callable<?>> sizes = estimator;
+    final AsyncFunction<AsyncCommand<V>, V> execute = new AsyncFunction<AsyncCommand<V>, V>() {
+      @Override
+      public ListenableFuture<V> apply(AsyncCommand<V> input) throws Exception {
+        return input.execute();
+      }
+    };
+    return new AsyncCommand<V>() {
+      @Override
+      public ListenableFuture<V> execute() {
+        return semaphore.submit(sizes.estimate(callable), execute, command);
       }
     };
   }
@@ -2,6 +2,8 @@ package org.robotninjas.util.composition;
 
 import com.google.common.base.Function;
 import com.google.common.util.concurrent.AsyncFunction;
+import org.robotninjas.util.concurrent.Quorum;
+import org.robotninjas.util.concurrent.QuorumResolver;
 
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -29,4 +31,24 @@ public interface Composition<I, X, O> {
   public <Y, Z extends List<Y>> FunctionComposition<I, X, Z> allAsList(Iterable<AsyncFunction<O, Y>> f);
 
   public <Y, Z extends List<Y>> FunctionComposition<I, X, Z> allAsList(AsyncFunction<O, Y>... f);
+
+  public <Y> FunctionComposition<I, O, Y> firstSuccessful(Iterable<AsyncFunction<O, Y>> f, Executor e);
+
+  public <Y> FunctionComposition<I, O, Y> firstSuccessful(Iterable<AsyncFunction<O, Y>> f);
+
+  public <Y> FunctionComposition<I, O, Y> firstSuccessful(AsyncFunction<O, Y>... f);
+
+  public <Y> FunctionComposition<I, O, Y> firstCompleted(Iterable<AsyncFunction<O, Y>> f, Executor e);
+
+  public <Y> FunctionComposition<I, O, Y> firstCompleted(Iterable<AsyncFunction<O, Y>> f);
+
+  public <Y> FunctionComposition<I, O, Y> firstCompleted(AsyncFunction<O, Y>... f);
+
+  public <Y> FunctionComposition<I, O, List<Y>> quorum(int required, Iterable<AsyncFunction<O, Y>> f);
+
+  public <Y> FunctionComposition<I, O, List<Y>> quorum(int required, AsyncFunction<O, Y>... f);
+
+  public <Y, R> FunctionComposition<I, O, R> quorum(Quorum quorum, Iterable<AsyncFunction<O, Y>> f, QuorumResolver<Y, ? extends R> resolver, Executor e);
+
+  public <Y, R> FunctionComposition<I, O, R> quorum(Quorum quorum, Iterable<AsyncFunction<O, Y>> f, QuorumResolver<Y, ? extends R> resolver);
 }
@@ -0,0 +1,343 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.composition;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.robotninjas.util.concurrent.FluentFuture;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * A composition whose stages form a directed acyclic graph rather than a line.
+ *
+ * Each node names the nodes whose outputs it consumes. Per invocation every node
+ * runs exactly once, as soon as all of its inputs are available, so a result
+ * used by several branches is computed once and independent branches run in
+ * parallel. Declaring the same function over the same inputs twice yields the
+ * same node, and nodes the output does not depend on are left out of the plan.
+ *
+ * @param <I>
+ *   The composition's input
+ * @param <O>
+ *   The composition's output
+ */
+@Immutable
+public class DagComposition<I, O> {
+
+  private final ImmutableList<Step> steps;
+
+  private DagComposition(ImmutableList<Step> steps) {
+    this.steps = steps;
+  }
+
+  public static <Z> Builder<Z> builder() {
+    return new Builder<Z>(sameThreadExecutor());
+  }
+
+  public static <Z> Builder<Z> builder(Executor e) {
+    return new Builder<Z>(e);
+  }
+
+  /**
+   * The number of nodes in the plan, including the input
+   */
+  public int size() {
+    return steps.size();
+  }
+
+  public ListenableFuture<O> buildFrom(ListenableFuture<I> start) {
+    final ListenableFuture<?>[] values = new ListenableFuture<?>[steps.size()];
+    values[0] = start;
+    for (int i = 1; i < steps.size(); i++) {
+      values[i] = steps.get(i).run(values);
+    }
+    return DagComposition.<ListenableFuture<O>>cast(values[values.length - 1]);
+  }
+
+  public AsyncFunction<I, O> buildAsyncFunction() {
+    return new AsyncFunction<I, O>() {
+      @Override
+      public ListenableFuture<O> apply(I input) throws Exception {
+        return buildFrom(immediateFuture(input));
+      }
+    };
+  }
+
+  public Function<I, O> buildFunction() {
+    return new Function<I, O>() {
+      @Nullable
+      @Override
+      public O apply(@Nullable I input) {
+        try {
+          return buildAsyncFunction().apply(input).get();
+        } catch (Exception e) {
+          throw propagate(e);
+        }
+      }
+    };
+  }
+
+  /**
+   * A node's output, only usable with the builder that created it
+   *
+   * @param <V>
+   *   The node's output
+   */
+  public static final class Node<V> {
+
+    private final Builder<?> owner;
+    private final int index;
+
+    private Node(Builder<?> owner, int index) {
+      this.owner = owner;
+      this.index = index;
+    }
+  }
+
+  public static class Builder<I> {
+
+    private final Executor executor;
+    private final List<Step> steps = Lists.newArrayList();
+    private final Map<Step, Node<?>> nodes = Maps.newHashMap();
+    private final Node<I> input;
+
+    private Builder(Executor executor) {
+      this.executor = checkNotNull(executor);
+      this.steps.add(null);
+      this.input = new Node<I>(this, 0);
+    }
+
+    public Node<I> input() {
+      return input;
+    }
+
+    public <A, Y> Node<Y> node(AsyncFunction<A, Y> f, Node<A> a) {
+      return node(f, executor, a);
+    }
+
+    public <A, Y> Node<Y> node(AsyncFunction<A, Y> f, Executor e, Node<A> a) {
+      return add(new Step(f, f, e, Shape.VALUE, indexes(a)));
+    }
+
+    public <A, Y> Node<Y> mapNode(Function<A, Y> f, Node<A> a) {
+      return mapNode(f, executor, a);
+    }
+
+    public <A, Y> Node<Y> mapNode(Function<A, Y> f, Executor e, Node<A> a) {
+      return add(new Step(f, async(f), e, Shape.VALUE, indexes(a)));
+    }
+
+    /**
+     * Run a whole linear composition as one node, the same composition over
+     * the same input is only run once
+     */
+    public <A, Y> Node<Y> node(FunctionComposition<A, ?, Y> c, Node<A> a) {
+      return add(new Step(c, c.buildAsyncFunction(), executor, Shape.VALUE, indexes(a)));
+    }
+
+    public <A, B, Y> Node<Y> node(AsyncFunction<FluentFuture.Zip<A, B>, Y> f, Node<A> a, Node<B> b) {
+      return node(f, executor, a, b);
+    }
+
+    public <A, B, Y> Node<Y> node(AsyncFunction<FluentFuture.Zip<A, B>, Y> f, Executor e, Node<A> a, Node<B> b) {
+      return add(new Step(f, f, e, Shape.ZIP, indexes(a, b)));
+    }
+
+    public <A, B, C, Y> Node<Y> node(AsyncFunction<FluentFuture.Zip3<A, B, C>, Y> f, Node<A> a, Node<B> b, Node<C> c) {
+      return node(f, executor, a, b, c);
+    }
+
+    public <A, B, C, Y> Node<Y> node(AsyncFunction<FluentFuture.Zip3<A, B, C>, Y> f, Executor e, Node<A> a, Node<B> b, Node<C> c) {
+      return add(new Step(f, f, e, Shape.ZIP3, indexes(a, b, c)));
+    }
+
+    /**
+     * A node over any number of inputs, passed to {@code f} in the order given
+     */
+    public <Y> Node<Y> listNode(AsyncFunction<List<Object>, Y> f, Executor e, Node<?>... inputs) {
+      checkArgument(inputs.length > 0, "a node needs at least one input");
+      return add(new Step(f, f, e, Shape.LIST, indexes(inputs)));
+    }
+
+    public <Y> Node<Y> listNode(AsyncFunction<List<Object>, Y> f, Node<?>... inputs) {
+      return listNode(f, executor, inputs);
+    }
+
+    /**
+     * Plan the nodes {@code output} depends on, in the order they were declared
+     */
+    public <O> DagComposition<I, O> build(Node<O> output) {
+      checkOwner(output);
+      final boolean[] needed = new boolean[steps.size()];
+      needed[output.index] = true;
+      for (int i = output.index; i > 0; i--) {
+        if (needed[i]) {
+          for (int dep : steps.get(i).deps) {
+            needed[dep] = true;
+          }
+        }
+      }
+
+      final int[] renumbered = new int[steps.size()];
+      final ImmutableList.Builder<Step> plan = ImmutableList.builder();
+      plan.add(Step.INPUT);
+      int next = 1;
+      for (int i = 1; i <= output.index; i++) {
+        if (needed[i]) {
+          renumbered[i] = next++;
+          plan.add(steps.get(i).renumber(renumbered));
+        }
+      }
+      return new DagComposition<I, O>(plan.build());
+    }
+
+    private <Y> Node<Y> add(Step step) {
+      final Node<?> existing = nodes.get(step);
+      if (existing != null) {
+        return DagComposition.<Node<Y>>cast(existing);
+      }
+      final Node<Y> node = new Node<Y>(this, steps.size());
+      steps.add(step);
+      nodes.put(step, node);
+      return node;
+    }
+
+    private int[] indexes(Node<?>... inputs) {
+      final int[] indexes = new int[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+        checkOwner(inputs[i]);
+        indexes[i] = inputs[i].index;
+      }
+      return indexes;
+    }
+
+    private void checkOwner(Node<?> node) {
+      checkArgument(checkNotNull(node).owner == this, "node belongs to another builder");
+    }
+
+    private static <A, Y> AsyncFunction<A, Y> async(final Function<A, Y> f) {
+      checkNotNull(f);
+      return new AsyncFunction<A, Y>() {
+        @Override
+        public ListenableFuture<Y> apply(A input) {
+          return immediateFuture(f.apply(input));
+        }
+      };
+    }
+  }
+
+  private enum Shape {
+    VALUE, ZIP, ZIP3, LIST
+  }
+
+  /**
+   * One node of the plan. Two steps are equal when they apply the same function,
+   * on the same executor, to the same inputs.
+   */
+  private static final class Step {
+
+    private static final Step INPUT = new Step(null, null, null, Shape.VALUE, new int[0]);
+
+    private final Object key;
+    private final AsyncFunction<Object, ?> func;
+    private final Executor executor;
+    private final Shape shape;
+    private final int[] deps;
+
+    private Step(Object key, AsyncFunction<?, ?> func, Executor executor, Shape shape, int[] deps) {
+      this.key = key;
+      this.func = DagComposition.<AsyncFunction<Object, ?>>cast(func);
+      this.executor = executor;
+      this.shape = shape;
+      this.deps = deps;
+    }
+
+    private Step renumber(int[] renumbered) {
+      final int[] mapped = new int[deps.length];
+      for (int i = 0; i < deps.length; i++) {
+        mapped[i] = renumbered[deps[i]];
+      }
+      return new Step(key, func, executor, shape, mapped);
+    }
+
+    private ListenableFuture<?> run(ListenableFuture<?>[] values) {
+      final ListenableFuture<?> in;
+      switch (shape) {
+        case ZIP:
+          in = FluentFuture.from(values[deps[0]]).zip(values[deps[1]]);
+          break;
+        case ZIP3:
+          in = FluentFuture.from(values[deps[0]]).zip(values[deps[1]], values[deps[2]]);
+          break;
+        case LIST:
+          final ListenableFuture<?>[] inputs = new ListenableFuture<?>[deps.length];
+          for (int i = 0; i < deps.length; i++) {
+            inputs[i] = values[deps[i]];
+          }
+          in = FluentFuture.<Object>allOf(inputs);
+          break;
+        default:
+          in = values[deps[0]];
+      }
+      return Futures.transform(in, func, executor);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Step)) {
+        return false;
+      }
+      final Step other = (Step) o;
+      return Objects.equal(key, other.key)
+        && Objects.equal(executor, other.executor)
+        && shape == other.shape
+        && Arrays.equals(deps, other.deps);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(key, executor, shape) * 31 + Arrays.hashCode(deps);
+    }
+  }
+
+  /**
+   * Steps hold their functions and outputs erased, node types are only
+   * checked when the graph is declared
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T cast(Object o) {
+    return (T) o;
+  }
+
+}
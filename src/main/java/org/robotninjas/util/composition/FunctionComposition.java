@@ -16,22 +16,37 @@
 package org.robotninjas.util.composition;
 
 import com.google.common.base.Function;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.SettableFuture;
+import org.robotninjas.util.concurrent.FluentFuture;
+import org.robotninjas.util.concurrent.LazyFuture;
+import org.robotninjas.util.concurrent.ParallelMap;
+import org.robotninjas.util.concurrent.Quorum;
+import org.robotninjas.util.concurrent.QuorumResolver;
+import org.robotninjas.util.concurrent.SizeEstimator;
+import org.robotninjas.util.concurrent.WeightedSemaphore;
+import org.robotninjas.util.trace.Span;
+import org.robotninjas.util.trace.Traced;
+import org.robotninjas.util.trace.Tracer;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.propagate;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 
 /**
  * Build a composition of any number of functions
@@ -46,6 +61,8 @@ import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor
 @Immutable
 public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
 
+  private static final Class<?> SAME_THREAD = sameThreadExecutor().getClass();
+
   private final Executor executor;
   private final ImmutableList<Stage> stages;
 
@@ -126,36 +143,158 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
     return allAsList(Arrays.asList(f));
   }
 
+  /**
+   * Apply every function to the input and continue with the first to succeed,
+   * the rest are cancelled. The stage fails only if every function fails.
+   */
+  public <Y> FunctionComposition<I, O, Y> firstSuccessful(Iterable<AsyncFunction<O, Y>> f, Executor e) {
+    ImmutableList<Stage> next = addStage(stages, new RaceStage<O, Y>(f, e, true));
+    return new FunctionComposition<I, O, Y>(next, executor);
+  }
+
+  public <Y> FunctionComposition<I, O, Y> firstSuccessful(Iterable<AsyncFunction<O, Y>> f) {
+    return firstSuccessful(f, executor);
+  }
+
+  public <Y> FunctionComposition<I, O, Y> firstSuccessful(AsyncFunction<O, Y>... f) {
+    return firstSuccessful(Arrays.asList(f));
+  }
+
+  /**
+   * Apply every function to the input and continue with the first to complete,
+   * successfully or not, the rest are cancelled
+   */
+  public <Y> FunctionComposition<I, O, Y> firstCompleted(Iterable<AsyncFunction<O, Y>> f, Executor e) {
+    ImmutableList<Stage> next = addStage(stages, new RaceStage<O, Y>(f, e, false));
+    return new FunctionComposition<I, O, Y>(next, executor);
+  }
+
+  public <Y> FunctionComposition<I, O, Y> firstCompleted(Iterable<AsyncFunction<O, Y>> f) {
+    return firstCompleted(f, executor);
+  }
+
+  public <Y> FunctionComposition<I, O, Y> firstCompleted(AsyncFunction<O, Y>... f) {
+    return firstCompleted(Arrays.asList(f));
+  }
+
+  /**
+   * Apply every function to the input and continue with the first
+   * {@code required} responses as soon as they have arrived, or fail as soon as
+   * too many functions have failed for that to happen. The functions still
+   * running once the quorum is decided are cancelled.
+   */
+  public <Y> FunctionComposition<I, O, List<Y>> quorum(int required, Iterable<AsyncFunction<O, Y>> f) {
+    return quorum(Quorum.of(required), f, Quorum.<Y>responses());
+  }
+
+  public <Y> FunctionComposition<I, O, List<Y>> quorum(int required, AsyncFunction<O, Y>... f) {
+    return quorum(required, Arrays.asList(f));
+  }
+
+  /**
+   * Like {@link #quorum(int, Iterable)}, with the deadline and partial result
+   * policy of {@code quorum}, and the responses merged by {@code resolver}
+   */
+  public <Y, R> FunctionComposition<I, O, R> quorum(Quorum quorum, Iterable<AsyncFunction<O, Y>> f, QuorumResolver<Y, ? extends R> resolver, Executor e) {
+    ImmutableList<Stage> next = addStage(stages, new QuorumStage(quorum, f, resolver, e));
+    return new FunctionComposition<I, O, R>(next, executor);
+  }
+
+  public <Y, R> FunctionComposition<I, O, R> quorum(Quorum quorum, Iterable<AsyncFunction<O, Y>> f, QuorumResolver<Y, ? extends R> resolver) {
+    return quorum(quorum, f, resolver, executor);
+  }
+
   private ImmutableList<Stage> addStage(ImmutableList<Stage> stages, Stage stage) {
     ImmutableList.Builder builder = ImmutableList.builder();
     return builder.addAll(stages).add(stage).build();
   }
 
-  private ListenableFuture<O> buildChain(ListenableFuture<I> start) {
-    final Iterator<Stage> itr = stages.iterator();
-    final Stage firstStage = itr.next();
-    ListenableFuture end = firstStage.transform(start);
-    while (itr.hasNext()) {
-      final Stage nextStage = itr.next();
-      end = nextStage.transform(end);
+  private ListenableFuture buildChain(ListenableFuture start, int from) {
+    ListenableFuture end = start;
+    for (int i = from; i < stages.size(); i++) {
+      end = stages.get(i).transform(end);
     }
     return end;
   }
 
+  /**
+   * Run stages directly on the calling thread for as long as their input is
+   * available and they would run on the same thread anyway, a future is only
+   * chained from the first stage that is pending or has to hop executors.
+   */
+  private ListenableFuture<O> runInline(Object input) {
+    Object value = input;
+    for (int i = 0; i < stages.size(); i++) {
+      final Stage stage = stages.get(i);
+      if (!stage.isSameThread()) {
+        return buildChain(immediateFuture(value), i);
+      }
+      final ListenableFuture next;
+      try {
+        next = stage.apply(value);
+      } catch (Throwable t) {
+        return immediateFailedFuture(t);
+      }
+      if (next == null) {
+        // the same failure Futures.transform gives when the stage is chained
+        return immediateFailedFuture(new NullPointerException("AsyncFunction may not return null."));
+      }
+      if (!next.isDone()) {
+        return buildChain(next, i + 1);
+      }
+      try {
+        value = getUninterruptibly(next);
+      } catch (Throwable t) {
+        return buildChain(next, i + 1);
+      }
+    }
+    return immediateFuture((O) value);
+  }
+
   public AsyncFunction<I, O> buildAsyncFunction() {
 
     return new AsyncFunction<I, O>() {
       @Override
       public ListenableFuture<O> apply(I input) throws Exception {
-        final SettableFuture<I> start = SettableFuture.create();
-        ListenableFuture<O> end = buildChain(start);
-        start.set(input);
-        return end;
+        return runInline(input);
       }
     };
 
   }
 
+  /**
+   * Like {@link #buildAsyncFunction()}, but each invocation first reserves the
+   * input's estimated size from {@code budget} and holds it until the output
+   * completes, so the memory held by invocations in flight stays bounded however
+   * their sizes vary. Invocations that do not fit wait without holding a thread.
+   */
+  public AsyncFunction<I, O> buildAsyncFunction(final WeightedSemaphore budget, final SizeEstimator<? super I> estimator) {
+    checkNotNull(budget);
+    checkNotNull(estimator);
+    final AsyncFunction<I, O> func = buildAsyncFunction();
+    return new AsyncFunction<I, O>() {
+      @Override
+      public ListenableFuture<O> apply(I input) {
+        return budget.submit(estimator.estimate(input), func, input);
+      }
+    };
+  }
+
+  /**
+   * Run the composition on every item with at most {@code parallelism} items in
+   * flight, the results are in input order and the first failure fails the lot
+   *
+   * @see ParallelMap
+   */
+  public ListenableFuture<List<O>> mapAll(Iterable<? extends I> items, int parallelism, int chunkSize) {
+    return ParallelMap.mapAll(items, buildAsyncFunction(), parallelism, chunkSize);
+  }
+
+  public ListenableFuture<ParallelMap.Results<O>> mapAll(Iterable<? extends I> items, int parallelism, int chunkSize,
+                                                        ParallelMap.FailureMode mode) {
+    return ParallelMap.mapAll(items, buildAsyncFunction(), parallelism, chunkSize, mode);
+  }
+
   public Function<I, O> buildFunction() {
     return new Function<I, O>() {
       @Nullable
@@ -171,11 +310,55 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
   }
 
   public ListenableFuture<O> buildFrom(ListenableFuture<I> start) {
-    return buildChain(start);
+    if (start.isDone() && !start.isCancelled()) {
+      try {
+        return runInline(getUninterruptibly(start));
+      } catch (ExecutionException e) {
+        // fall through and let the chain propagate the failure
+      }
+    }
+    return buildChain(start, 0);
+  }
+
+  /**
+   * Describe running the composition on {@code input} without starting it, the
+   * stages run once, when the returned future is first listened to or waited on
+   */
+  public LazyFuture<O> buildLazy(final I input) {
+    return LazyFuture.defer(new Supplier<ListenableFuture<O>>() {
+      @Override
+      public ListenableFuture<O> get() {
+        return runInline(input);
+      }
+    });
+  }
+
+  public LazyFuture<O> buildLazyFrom(final ListenableFuture<I> start) {
+    return LazyFuture.defer(new Supplier<ListenableFuture<O>>() {
+      @Override
+      public ListenableFuture<O> get() {
+        return buildFrom(start);
+      }
+    });
+  }
+
+  private static boolean isSameThread(Executor executor) {
+    return executor.getClass() == SAME_THREAD;
   }
 
   private interface Stage<I, O> {
+
     ListenableFuture<O> transform(ListenableFuture<I> f);
+
+    /**
+     * Whether {@link #apply(Object)} may be called directly on the calling thread
+     */
+    boolean isSameThread();
+
+    /**
+     * Run the stage on an input that is already available
+     */
+    ListenableFuture<O> apply(I input) throws Exception;
   }
 
   private static class AsyncStage<I, O> implements Stage<I, O> {
@@ -184,7 +367,7 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
     private final Executor executor;
 
     private AsyncStage(AsyncFunction<I, O> func, Executor executor) {
-      this.func = func;
+      this.func = Traced.stage(func);
       this.executor = executor;
     }
 
@@ -192,6 +375,16 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
     public ListenableFuture<O> transform(ListenableFuture f) {
       return Futures.transform(f, func, executor);
     }
+
+    @Override
+    public boolean isSameThread() {
+      return FunctionComposition.isSameThread(executor);
+    }
+
+    @Override
+    public ListenableFuture<O> apply(I input) throws Exception {
+      return func.apply(input);
+    }
   }
 
   private static class SyncStage<I, O> implements Stage<I, O> {
@@ -200,7 +393,7 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
     private final Executor executor;
 
     private SyncStage(Function<I, O> func, Executor executor) {
-      this.func = func;
+      this.func = Traced.stage(func);
       this.executor = executor;
     }
 
@@ -208,6 +401,16 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
     public ListenableFuture<O> transform(ListenableFuture<I> f) {
       return Futures.transform(f, func, executor);
     }
+
+    @Override
+    public boolean isSameThread() {
+      return FunctionComposition.isSameThread(executor);
+    }
+
+    @Override
+    public ListenableFuture<O> apply(I input) {
+      return immediateFuture(func.apply(input));
+    }
   }
 
   private static class BuilderForkStage<O> implements Stage<O, O> {
@@ -226,6 +429,17 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
       Futures.transform(f, builder.buildAsyncFunction(), executor);
       return f;
     }
+
+    @Override
+    public boolean isSameThread() {
+      return FunctionComposition.isSameThread(executor);
+    }
+
+    @Override
+    public ListenableFuture<O> apply(O input) throws Exception {
+      builder.buildAsyncFunction().apply(input);
+      return immediateFuture(input);
+    }
   }
 
   private static class FunctionsForkStage<O> implements Stage<O, O> {
@@ -247,6 +461,23 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
 
       return f;
     }
+
+    @Override
+    public boolean isSameThread() {
+      return FunctionComposition.isSameThread(executor);
+    }
+
+    @Override
+    public ListenableFuture<O> apply(O input) throws Exception {
+      for (AsyncFunction func : funcs) {
+        try {
+          func.apply(input);
+        } catch (Exception e) {
+          // a failed fork does not fail the main chain, as with transform()
+        }
+      }
+      return immediateFuture(input);
+    }
   }
 
   private static class AllAsListStage<I, O> implements Stage {
@@ -264,14 +495,30 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
       return Futures.transform(f, new AsyncFunction<I, O>() {
         @Override
         public ListenableFuture apply(I input) throws Exception {
-          final List<ListenableFuture<O>> futures = Lists.newArrayList();
-          for (AsyncFunction f : funcs) {
-            futures.add(f.apply(input));
-          }
-          return Futures.allAsList(futures);
+          return AllAsListStage.this.apply(input);
         }
       });
     }
+
+    @Override
+    public boolean isSameThread() {
+      return true;
+    }
+
+    @Override
+    public ListenableFuture apply(Object input) throws Exception {
+      final Span span = Tracer.get().fanOut("allAsList", Iterables.size(funcs));
+      final List<ListenableFuture<O>> futures = Lists.newArrayList();
+      try {
+        for (AsyncFunction f : funcs) {
+          futures.add(f.apply(input));
+        }
+      } catch (Exception e) {
+        span.end(e);
+        throw e;
+      }
+      return Traced.end(span, Futures.allAsList(futures));
+    }
   }
 
   private static class SuccessfulAsListStage<I, O> implements Stage {
@@ -289,14 +536,116 @@ public class FunctionComposition<I, X, O> implements Composition<I, X, O> {
       return Futures.transform(f, new AsyncFunction<I, O>() {
         @Override
         public ListenableFuture apply(I input) throws Exception {
-          final List<ListenableFuture<O>> futures = Lists.newArrayList();
-          for (AsyncFunction f : funcs) {
-            futures.add(f.apply(input));
-          }
-          return Futures.successfulAsList(futures);
+          return SuccessfulAsListStage.this.apply(input);
         }
       });
     }
+
+    @Override
+    public boolean isSameThread() {
+      return true;
+    }
+
+    @Override
+    public ListenableFuture apply(Object input) throws Exception {
+      final Span span = Tracer.get().fanOut("successfulAsList", Iterables.size(funcs));
+      final List<ListenableFuture<O>> futures = Lists.newArrayList();
+      try {
+        for (AsyncFunction f : funcs) {
+          futures.add(f.apply(input));
+        }
+      } catch (Exception e) {
+        span.end(e);
+        throw e;
+      }
+      return Traced.end(span, Futures.successfulAsList(futures));
+    }
+  }
+
+  private static class RaceStage<I, O> implements Stage<I, O> {
+
+    private final Iterable<AsyncFunction<I, O>> funcs;
+    private final Executor executor;
+    private final boolean requireSuccess;
+
+    private RaceStage(Iterable<AsyncFunction<I, O>> funcs, Executor executor, boolean requireSuccess) {
+      this.funcs = funcs;
+      this.executor = executor;
+      this.requireSuccess = requireSuccess;
+    }
+
+    @Override
+    public ListenableFuture<O> transform(ListenableFuture<I> f) {
+      return Futures.transform(f, new AsyncFunction<I, O>() {
+        @Override
+        public ListenableFuture<O> apply(I input) {
+          return RaceStage.this.apply(input);
+        }
+      }, executor);
+    }
+
+    @Override
+    public boolean isSameThread() {
+      return FunctionComposition.isSameThread(executor);
+    }
+
+    @Override
+    public ListenableFuture<O> apply(I input) {
+      final Span span = Tracer.get().fanOut(requireSuccess ? "firstSuccessful" : "firstCompleted", Iterables.size(funcs));
+      final List<ListenableFuture<O>> futures = Lists.newArrayList();
+      for (AsyncFunction<I, O> f : funcs) {
+        try {
+          futures.add(f.apply(input));
+        } catch (Exception e) {
+          futures.add(Futures.<O>immediateFailedFuture(e));
+        }
+      }
+      return Traced.end(span, requireSuccess ? FluentFuture.firstSuccessful(futures) : FluentFuture.firstCompleted(futures));
+    }
+  }
+
+  private static class QuorumStage<I, Y, R> implements Stage<I, R> {
+
+    private final Quorum quorum;
+    private final Iterable<AsyncFunction<I, Y>> funcs;
+    private final QuorumResolver<Y, ? extends R> resolver;
+    private final Executor executor;
+
+    private QuorumStage(Quorum quorum, Iterable<AsyncFunction<I, Y>> funcs, QuorumResolver<Y, ? extends R> resolver, Executor executor) {
+      this.quorum = checkNotNull(quorum);
+      this.funcs = funcs;
+      this.resolver = checkNotNull(resolver);
+      this.executor = executor;
+    }
+
+    @Override
+    public ListenableFuture<R> transform(ListenableFuture<I> f) {
+      return Futures.transform(f, new AsyncFunction<I, R>() {
+        @Override
+        public ListenableFuture<R> apply(I input) {
+          return QuorumStage.this.apply(input);
+        }
+      }, executor);
+    }
+
+    @Override
+    public boolean isSameThread() {
+      return FunctionComposition.isSameThread(executor);
+    }
+
+    @Override
+    public ListenableFuture<R> apply(I input) {
+      final Span span = Tracer.get().fanOut("quorum", Iterables.size(funcs));
+      final List<ListenableFuture<Y>> futures = Lists.newArrayList();
+      for (AsyncFunction<I, Y> f : funcs) {
+        try {
+          futures.add(f.apply(input));
+        } catch (Exception e) {
+          futures.add(Futures.<Y>immediateFailedFuture(e));
+        }
+      }
+      return Traced.end(span, FluentFuture.quorum(quorum, futures, resolver));
+    }
   }
 
 }
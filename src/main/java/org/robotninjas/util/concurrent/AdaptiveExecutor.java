@@ -0,0 +1,357 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Places stages on a CPU pool or a blocking pool based on how they behave.
+ *
+ * Each named stage gets its own {@link Executor} from {@link #stage(String)},
+ * pass it to {@code transform(f, executor)}. Every task run through it records
+ * its CPU time and wall time. Once per interval the stages are re-placed, a
+ * stage that spends more than the blocking threshold of its wall time off CPU
+ * goes to the blocking pool, the rest go to the CPU pool. The blocking pool is
+ * then sized by Little's law, the sum over blocking stages of arrival rate times
+ * mean wall time, within the configured bounds. While tasks are queued the pool
+ * grows by the backlog instead, since a saturated pool holds the arrival rate down.
+ *
+ * Stages start out on the CPU pool, where their CPU time is measured without
+ * contention from blocking threads, and move once enough samples are seen. The
+ * current placements can be read with {@link #getPlacements()} and fed back
+ * through {@link Builder#withPlacements(Map)} or {@link #pin(String, Placement)},
+ * pinned stages are never moved.
+ *
+ * CPU time is read through {@link ThreadMXBean}. Measuring it is a JVM-wide
+ * setting that is on by default on HotSpot, if it is off stages are not moved
+ * unless the executor was built with {@link Builder#withThreadCpuTimeEnabled()},
+ * which turns it on for the whole JVM.
+ */
+public class AdaptiveExecutor {
+
+  public enum Placement {
+    CPU, BLOCKING
+  }
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final ExecutorService cpuPool;
+  private final boolean ownsCpuPool;
+  private final ThreadPoolExecutor blockingPool;
+  private final int minBlockingThreads;
+  private final int maxBlockingThreads;
+  private final double blockingThreshold;
+  private final long intervalNanos;
+  private final int minSamples;
+  private final boolean measureCpu;
+  private final ConcurrentMap<String, StageStats> stages = Maps.newConcurrentMap();
+  private final AtomicLong lastCalibration = new AtomicLong(System.nanoTime());
+
+  private AdaptiveExecutor(Builder builder) {
+    this.cpuPool = builder.cpuPool;
+    this.ownsCpuPool = builder.ownsCpuPool;
+    this.minBlockingThreads = builder.minBlockingThreads;
+    this.maxBlockingThreads = builder.maxBlockingThreads;
+    this.blockingThreshold = builder.blockingThreshold;
+    this.intervalNanos = builder.intervalNanos;
+    this.minSamples = builder.minSamples;
+    if (builder.enableCpuTime && THREADS.isCurrentThreadCpuTimeSupported() && !THREADS.isThreadCpuTimeEnabled()) {
+      THREADS.setThreadCpuTimeEnabled(true);
+    }
+    this.measureCpu = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+    this.blockingPool = new ThreadPoolExecutor(
+      minBlockingThreads, minBlockingThreads, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("adaptive-blocking-%d").build());
+    this.blockingPool.allowCoreThreadTimeOut(true);
+    for (Map.Entry<String, Placement> pinned : builder.placements.entrySet()) {
+      pin(pinned.getKey(), pinned.getValue());
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * The executor for the stage called {@code name}, the same stage always gets
+   * the same statistics no matter how many executors are asked for
+   */
+  public Executor stage(String name) {
+    final StageStats stats = stats(checkNotNull(name));
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        dispatch(stats, command);
+      }
+    };
+  }
+
+  public void pin(String name, Placement placement) {
+    final StageStats stats = stats(name);
+    stats.placement = checkNotNull(placement);
+    stats.pinned = true;
+  }
+
+  public ImmutableMap<String, Placement> getPlacements() {
+    final ImmutableMap.Builder<String, Placement> placements = ImmutableMap.builder();
+    for (Map.Entry<String, StageStats> stage : stages.entrySet()) {
+      placements.put(stage.getKey(), stage.getValue().placement);
+    }
+    return placements.build();
+  }
+
+  /**
+   * The blocking ratio last observed for a stage, between 0 (pure CPU) and 1
+   */
+  public double getBlockingRatio(String name) {
+    final StageStats stats = stages.get(name);
+    return stats == null ? Double.NaN : stats.blockingRatio;
+  }
+
+  public int getBlockingPoolSize() {
+    return blockingPool.getMaximumPoolSize();
+  }
+
+  /**
+   * Re-place stages and resize the blocking pool now rather than waiting for the
+   * interval to pass
+   */
+  public void recalibrate() {
+    final long now = System.nanoTime();
+    calibrate(now - lastCalibration.getAndSet(now));
+  }
+
+  private synchronized void calibrate(long elapsedNanos) {
+    final double elapsedSeconds = Math.max(elapsedNanos, 1) / 1e9;
+
+    double blockingThreads = 0;
+    for (StageStats stats : stages.values()) {
+      stats.sample(elapsedSeconds, minSamples);
+      if (!stats.pinned && stats.sampled && measureCpu) {
+        stats.placement = stats.blockingRatio > blockingThreshold ? Placement.BLOCKING : Placement.CPU;
+      }
+      if (stats.placement == Placement.BLOCKING) {
+        // Little's law: threads busy = arrival rate * time each task holds a thread
+        blockingThreads += stats.arrivalRate * stats.meanWallNanos / 1e9;
+      }
+    }
+
+    int wanted = (int) Math.ceil(blockingThreads);
+    final int backlog = blockingPool.getQueue().size();
+    if (backlog > 0) {
+      // a saturated pool caps the rate we can observe, so grow by the backlog
+      // rather than trusting an estimate the pool itself is holding down
+      wanted = Math.max(wanted, blockingPool.getMaximumPoolSize() + backlog);
+    }
+    resize(wanted);
+  }
+
+  /**
+   * Shut down the blocking pool, and the CPU pool unless it was supplied through
+   * {@link Builder#withCpuPool(ExecutorService)}
+   */
+  public void shutdown() {
+    if (ownsCpuPool) {
+      cpuPool.shutdown();
+    }
+    blockingPool.shutdown();
+  }
+
+  private void resize(int wanted) {
+    final int size = Math.max(minBlockingThreads, Math.min(maxBlockingThreads, wanted));
+    if (size > blockingPool.getMaximumPoolSize()) {
+      blockingPool.setMaximumPoolSize(size);
+      blockingPool.setCorePoolSize(size);
+    } else {
+      blockingPool.setCorePoolSize(size);
+      blockingPool.setMaximumPoolSize(size);
+    }
+  }
+
+  private StageStats stats(String name) {
+    StageStats stats = stages.get(name);
+    if (stats == null) {
+      final StageStats created = new StageStats();
+      stats = stages.putIfAbsent(name, created);
+      if (stats == null) {
+        stats = created;
+      }
+    }
+    return stats;
+  }
+
+  private void dispatch(final StageStats stats, final Runnable command) {
+    stats.arrivals.incrementAndGet();
+    final Runnable measured = new Runnable() {
+      @Override
+      public void run() {
+        final long cpuStart = measureCpu ? THREADS.getCurrentThreadCpuTime() : 0;
+        final long wallStart = System.nanoTime();
+        try {
+          command.run();
+        } finally {
+          final long wall = System.nanoTime() - wallStart;
+          final long cpu = measureCpu ? THREADS.getCurrentThreadCpuTime() - cpuStart : 0;
+          stats.record(cpu, wall);
+          maybeRecalibrate();
+        }
+      }
+    };
+    if (stats.placement == Placement.CPU) {
+      cpuPool.execute(measured);
+    } else {
+      blockingPool.execute(measured);
+    }
+  }
+
+  private void maybeRecalibrate() {
+    final long last = lastCalibration.get();
+    final long now = System.nanoTime();
+    if (now - last >= intervalNanos && lastCalibration.compareAndSet(last, now)) {
+      calibrate(now - last);
+    }
+  }
+
+  /**
+   * Counters for the current interval and the estimates taken from the last one
+   */
+  private static final class StageStats {
+
+    private final AtomicLong arrivals = new AtomicLong();
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong wallNanos = new AtomicLong();
+
+    private volatile Placement placement = Placement.CPU;
+    private volatile boolean pinned;
+    private volatile boolean sampled;
+    private volatile double blockingRatio = Double.NaN;
+    private volatile double arrivalRate;
+    private volatile double meanWallNanos;
+
+    private void record(long cpu, long wall) {
+      count.incrementAndGet();
+      cpuNanos.addAndGet(cpu);
+      wallNanos.addAndGet(wall);
+    }
+
+    private void sample(double elapsedSeconds, int minSamples) {
+      arrivalRate = arrivals.getAndSet(0) / elapsedSeconds;
+      final long n = count.get();
+      if (n < minSamples) {
+        // too few to judge, keep the counters for the next interval
+        return;
+      }
+      final long cpu = cpuNanos.getAndSet(0);
+      final long wall = wallNanos.getAndSet(0);
+      count.addAndGet(-n);
+      meanWallNanos = (double) wall / n;
+      blockingRatio = wall == 0 ? 0 : Math.max(0, 1 - (double) cpu / wall);
+      sampled = true;
+    }
+  }
+
+  public static class Builder {
+
+    private ExecutorService cpuPool;
+    private boolean ownsCpuPool;
+    private boolean enableCpuTime;
+    private int minBlockingThreads = 1;
+    private int maxBlockingThreads = 256;
+    private double blockingThreshold = 0.5;
+    private long intervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private int minSamples = 10;
+    private Map<String, Placement> placements = Maps.newHashMap();
+
+    private Builder() {
+    }
+
+    public Builder withCpuPool(ExecutorService cpuPool) {
+      this.cpuPool = checkNotNull(cpuPool);
+      return this;
+    }
+
+    /**
+     * Turn on thread CPU time measurement for the whole JVM if it is off
+     */
+    public Builder withThreadCpuTimeEnabled() {
+      this.enableCpuTime = true;
+      return this;
+    }
+
+    public Builder withBlockingThreads(int min, int max) {
+      checkArgument(min > 0 && max >= min, "need 0 < min <= max");
+      this.minBlockingThreads = min;
+      this.maxBlockingThreads = max;
+      return this;
+    }
+
+    /**
+     * The fraction of wall time off CPU above which a stage counts as blocking
+     */
+    public Builder withBlockingThreshold(double threshold) {
+      checkArgument(threshold >= 0 && threshold <= 1, "threshold must be between 0 and 1");
+      this.blockingThreshold = threshold;
+      return this;
+    }
+
+    public Builder withInterval(long duration, TimeUnit unit) {
+      this.intervalNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    public Builder withMinSamples(int minSamples) {
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * Pin stages to placements, typically ones exported by {@link #getPlacements()}
+     */
+    public Builder withPlacements(Map<String, Placement> placements) {
+      this.placements.putAll(placements);
+      return this;
+    }
+
+    public AdaptiveExecutor build() {
+      if (cpuPool == null) {
+        cpuPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("adaptive-cpu-%d").build());
+        ownsCpuPool = true;
+      }
+      return new AdaptiveExecutor(this);
+    }
+  }
+
+}
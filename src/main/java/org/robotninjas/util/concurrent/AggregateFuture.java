@@ -0,0 +1,243 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * A single future that waits on any number of inputs.
+ *
+ * Each aggregate is one object with one atomic counter, no matter how many
+ * inputs it combines, so combining N futures does not build N-1 intermediate
+ * futures the way nested transforms do. The first failed or cancelled input
+ * fails the aggregate. Cancelling the aggregate cancels the inputs it owns, all
+ * of them for {@code allOf} and {@code reduce}, and only the chain being zipped
+ * onto for {@code zip}, since the other zipped futures are the caller's and
+ * may be shared.
+ *
+ * @param <V>
+ *   The combined result
+ */
+abstract class AggregateFuture<V> extends AbstractFuture<V> {
+
+  private static final AtomicIntegerFieldUpdater<AggregateFuture<?>> PENDING = pendingUpdater();
+
+  private final ListenableFuture<?>[] inputs;
+  // the leading inputs this aggregate owns and cancels when it is cancelled
+  private final int owned;
+  private volatile int pending;
+
+  AggregateFuture(ListenableFuture<?>[] inputs, int owned) {
+    this.inputs = inputs;
+    this.owned = owned;
+    this.pending = inputs.length;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static AtomicIntegerFieldUpdater<AggregateFuture<?>> pendingUpdater() {
+    return (AtomicIntegerFieldUpdater) AtomicIntegerFieldUpdater.newUpdater(AggregateFuture.class, "pending");
+  }
+
+  static <L, R> ListenableFuture<FluentFuture.Zip<L, R>> zip(ListenableFuture<L> left, ListenableFuture<R> right) {
+    return new ArrayAggregate<FluentFuture.Zip<L, R>>(new ListenableFuture<?>[]{left, right}, 1) {
+      @Override
+      @SuppressWarnings("unchecked")
+      FluentFuture.Zip<L, R> combine(Object[] values) {
+        return new FluentFuture.Zip<L, R>((L) values[0], (R) values[1]);
+      }
+    }.start();
+  }
+
+  static <A, B, C> ListenableFuture<FluentFuture.Zip3<A, B, C>> zip(ListenableFuture<A> first,
+                                                                    ListenableFuture<B> second,
+                                                                    ListenableFuture<C> third) {
+    return new ArrayAggregate<FluentFuture.Zip3<A, B, C>>(new ListenableFuture<?>[]{first, second, third}, 1) {
+      @Override
+      @SuppressWarnings("unchecked")
+      FluentFuture.Zip3<A, B, C> combine(Object[] values) {
+        return new FluentFuture.Zip3<A, B, C>((A) values[0], (B) values[1], (C) values[2]);
+      }
+    }.start();
+  }
+
+  static <A, B, C, D> ListenableFuture<FluentFuture.Zip4<A, B, C, D>> zip(ListenableFuture<A> first,
+                                                                          ListenableFuture<B> second,
+                                                                          ListenableFuture<C> third,
+                                                                          ListenableFuture<D> fourth) {
+    return new ArrayAggregate<FluentFuture.Zip4<A, B, C, D>>(new ListenableFuture<?>[]{first, second, third, fourth}, 1) {
+      @Override
+      @SuppressWarnings("unchecked")
+      FluentFuture.Zip4<A, B, C, D> combine(Object[] values) {
+        return new FluentFuture.Zip4<A, B, C, D>((A) values[0], (B) values[1], (C) values[2], (D) values[3]);
+      }
+    }.start();
+  }
+
+  static <Y> ListenableFuture<List<Y>> allOf(ListenableFuture<?>[] futures) {
+    return new ArrayAggregate<List<Y>>(futures, futures.length) {
+      @Override
+      @SuppressWarnings("unchecked")
+      List<Y> combine(Object[] values) {
+        return Collections.unmodifiableList((List<Y>) Arrays.asList(values));
+      }
+    }.start();
+  }
+
+  static <A, Y> ListenableFuture<A> reduce(ListenableFuture<?>[] futures, A initial, Reducer<A, Y> reducer) {
+    return new ReduceAggregate<A, Y>(futures, initial, checkNotNull(reducer)).start();
+  }
+
+  /**
+   * Register with the inputs, must be called once the aggregate is fully constructed
+   */
+  final AggregateFuture<V> start() {
+    if (inputs.length == 0) {
+      complete();
+      return this;
+    }
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i].addListener(new Slot(i), sameThreadExecutor());
+    }
+    return this;
+  }
+
+  /**
+   * Record the value of input {@code index}, called at most once per input
+   */
+  abstract void collect(int index, Object value) throws Exception;
+
+  abstract V combine() throws Exception;
+
+  private void complete() {
+    try {
+      set(combine());
+    } catch (Throwable t) {
+      setException(t);
+    }
+  }
+
+  private void onInputDone(int index) {
+    if (isDone()) {
+      return;
+    }
+    try {
+      collect(index, getUninterruptibly(inputs[index]));
+    } catch (ExecutionException e) {
+      setException(e.getCause());
+      return;
+    } catch (CancellationException e) {
+      cancel(false);
+      return;
+    } catch (Throwable t) {
+      setException(t);
+      return;
+    }
+    if (PENDING.decrementAndGet(this) == 0) {
+      complete();
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (super.cancel(mayInterruptIfRunning)) {
+      for (int i = 0; i < owned; i++) {
+        inputs[i].cancel(mayInterruptIfRunning);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private final class Slot implements Runnable {
+
+    private final int index;
+
+    private Slot(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public void run() {
+      onInputDone(index);
+    }
+  }
+
+  /**
+   * Collects every value into a pre-sized array, the counter's final decrement
+   * publishes the array to whichever thread runs {@link #combine(Object[])}
+   */
+  private static abstract class ArrayAggregate<V> extends AggregateFuture<V> {
+
+    private final Object[] values;
+
+    private ArrayAggregate(ListenableFuture<?>[] inputs, int owned) {
+      super(inputs, owned);
+      this.values = new Object[inputs.length];
+    }
+
+    @Override
+    final void collect(int index, Object value) {
+      values[index] = value;
+    }
+
+    @Override
+    final V combine() throws Exception {
+      return combine(values);
+    }
+
+    abstract V combine(Object[] values);
+  }
+
+  /**
+   * Folds values in as they arrive and keeps none of them, values are folded in
+   * completion order so the reducer should not depend on input order
+   */
+  private static final class ReduceAggregate<A, Y> extends AggregateFuture<A> {
+
+    private final Reducer<A, Y> reducer;
+    private A accumulator;
+
+    private ReduceAggregate(ListenableFuture<?>[] inputs, A initial, Reducer<A, Y> reducer) {
+      super(inputs, inputs.length);
+      this.accumulator = initial;
+      this.reducer = reducer;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    synchronized void collect(int index, Object value) throws Exception {
+      accumulator = reducer.reduce(accumulator, (Y) value);
+    }
+
+    @Override
+    synchronized A combine() {
+      return accumulator;
+    }
+  }
+
+}
@@ -0,0 +1,42 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Thrown when every one of several alternatives failed, the cause is the first
+ * failure and {@link #getFailures()} holds all of them in input order
+ */
+public class AllFailedException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ImmutableList<Throwable> failures;
+
+  public AllFailedException(List<? extends Throwable> failures) {
+    super("All " + failures.size() + " alternatives failed",
+      failures.isEmpty() ? null : failures.get(0));
+    this.failures = ImmutableList.copyOf(failures);
+  }
+
+  public List<Throwable> getFailures() {
+    return failures;
+  }
+
+}
@@ -0,0 +1,51 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+/**
+ * An expected failure used for control flow, such as a value rejected by a
+ * filter or a request shed under load.
+ *
+ * These are thrown often enough that capturing a stack trace would cost more
+ * than the work they short circuit, so they are created without one and without
+ * suppressed exceptions. Each subclass offers a shared instance through its
+ * {@code instance()} method. Setting the system property
+ * {@value #DEBUG_PROPERTY} to {@code true} makes every instance fresh and
+ * captures traces again, for when you need to see where one came from.
+ *
+ * Match on the subclass, never on the message.
+ */
+public abstract class ControlFlowException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String DEBUG_PROPERTY = "org.robotninjas.util.debugControlFlow";
+
+  static final boolean DEBUG = Boolean.getBoolean(DEBUG_PROPERTY);
+
+  protected ControlFlowException(String message) {
+    super(message, null, false, DEBUG);
+  }
+
+  protected ControlFlowException(String message, Throwable cause) {
+    super(message, cause, false, DEBUG);
+  }
+
+  public static boolean isDebug() {
+    return DEBUG;
+  }
+
+}
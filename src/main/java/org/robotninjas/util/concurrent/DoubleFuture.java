@@ -0,0 +1,256 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static org.robotninjas.util.concurrent.PrimitiveFunctions.*;
+
+/**
+ * A future holding an unboxed {@code double}. Transforms that take primitive
+ * functions keep the value unboxed from one stage to the next, it is only
+ * boxed when read through {@link #get()}.
+ */
+public class DoubleFuture extends PrimitiveFuture<Double> {
+
+  private static final DoubleBinaryFunction SUM = new DoubleBinaryFunction() {
+    @Override
+    public double apply(double left, double right) {
+      return left + right;
+    }
+  };
+
+  private static final DoubleBinaryFunction MIN = new DoubleBinaryFunction() {
+    @Override
+    public double apply(double left, double right) {
+      return Math.min(left, right);
+    }
+  };
+
+  private static final DoubleBinaryFunction MAX = new DoubleBinaryFunction() {
+    @Override
+    public double apply(double left, double right) {
+      return Math.max(left, right);
+    }
+  };
+
+  private double value;
+
+  DoubleFuture() {
+  }
+
+  public static DoubleFuture create() {
+    return new DoubleFuture();
+  }
+
+  public static DoubleFuture immediate(double value) {
+    final DoubleFuture future = new DoubleFuture();
+    future.set(value);
+    return future;
+  }
+
+  public static DoubleFuture immediateFailed(Throwable throwable) {
+    final DoubleFuture future = new DoubleFuture();
+    future.setException(throwable);
+    return future;
+  }
+
+  public static <I> DoubleFuture from(final ListenableFuture<I> source, final ToDoubleFunction<? super I> func, Executor executor) {
+    checkNotNull(func);
+    return chain(source, new DoubleFuture(), new Continuation<DoubleFuture>() {
+      @Override
+      public void complete(DoubleFuture next) throws Exception {
+        next.set(func.apply(getUninterruptibly(source)));
+      }
+    }, executor);
+  }
+
+  public boolean set(double value) {
+    synchronized (this) {
+      if (!markSucceeded()) {
+        return false;
+      }
+      this.value = value;
+    }
+    done();
+    return true;
+  }
+
+  public synchronized double getDouble() throws InterruptedException, ExecutionException {
+    await();
+    return value;
+  }
+
+  public synchronized double getDouble(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    await(timeout, unit);
+    return value;
+  }
+
+  /**
+   * The value of a future that is known to have succeeded
+   */
+  synchronized double doneValue() {
+    return value;
+  }
+
+  @Override
+  Double boxed() {
+    return value;
+  }
+
+  public DoubleFuture transform(DoubleUnaryFunction func) {
+    return transform(func, sameThreadExecutor());
+  }
+
+  public DoubleFuture transform(final DoubleUnaryFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new DoubleFuture(), new Continuation<DoubleFuture>() {
+      @Override
+      public void complete(DoubleFuture next) throws Exception {
+        next.set(func.apply(getDouble()));
+      }
+    }, executor);
+  }
+
+  public IntFuture mapToInt(DoubleToIntFunction func) {
+    return mapToInt(func, sameThreadExecutor());
+  }
+
+  public IntFuture mapToInt(final DoubleToIntFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new IntFuture(), new Continuation<IntFuture>() {
+      @Override
+      public void complete(IntFuture next) throws Exception {
+        next.set(func.apply(getDouble()));
+      }
+    }, executor);
+  }
+
+  public LongFuture mapToLong(DoubleToLongFunction func) {
+    return mapToLong(func, sameThreadExecutor());
+  }
+
+  public LongFuture mapToLong(final DoubleToLongFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new LongFuture(), new Continuation<LongFuture>() {
+      @Override
+      public void complete(LongFuture next) throws Exception {
+        next.set(func.apply(getDouble()));
+      }
+    }, executor);
+  }
+
+  /**
+   * Fold every input into {@code identity} as it completes, the first failed or
+   * cancelled input fails the result
+   */
+  public static DoubleFuture reduce(double identity, DoubleBinaryFunction func, Iterable<DoubleFuture> futures) {
+    final Reduction reduction = new Reduction(identity, checkNotNull(func));
+    for (DoubleFuture future : futures) {
+      reduction.register(future);
+    }
+    reduction.arrive();
+    return reduction;
+  }
+
+  public static DoubleFuture sum(DoubleFuture... futures) {
+    return sum(Arrays.asList(futures));
+  }
+
+  public static DoubleFuture sum(Iterable<DoubleFuture> futures) {
+    return reduce(0.0, SUM, futures);
+  }
+
+  /**
+   * The smallest input, or {@code Double.POSITIVE_INFINITY} if there are none
+   */
+  public static DoubleFuture min(DoubleFuture... futures) {
+    return min(Arrays.asList(futures));
+  }
+
+  public static DoubleFuture min(Iterable<DoubleFuture> futures) {
+    return reduce(Double.POSITIVE_INFINITY, MIN, futures);
+  }
+
+  /**
+   * The largest input, or {@code Double.NEGATIVE_INFINITY} if there are none
+   */
+  public static DoubleFuture max(DoubleFuture... futures) {
+    return max(Arrays.asList(futures));
+  }
+
+  public static DoubleFuture max(Iterable<DoubleFuture> futures) {
+    return reduce(Double.NEGATIVE_INFINITY, MAX, futures);
+  }
+
+  private static final class Reduction extends DoubleFuture {
+
+    private final DoubleBinaryFunction func;
+    private double accumulator;
+    private int pending = 1;
+
+    private Reduction(double identity, DoubleBinaryFunction func) {
+      this.accumulator = identity;
+      this.func = func;
+    }
+
+    private void register(final DoubleFuture input) {
+      synchronized (this) {
+        pending++;
+      }
+      input.addListener(new Runnable() {
+        @Override
+        public void run() {
+          if (input.forwardFailure(Reduction.this)) {
+            return;
+          }
+          accept(input.doneValue());
+        }
+      }, sameThreadExecutor());
+    }
+
+    private void accept(double input) {
+      synchronized (this) {
+        if (isDone()) {
+          return;
+        }
+        accumulator = func.apply(accumulator, input);
+      }
+      arrive();
+    }
+
+    private void arrive() {
+      final double result;
+      synchronized (this) {
+        if (--pending > 0) {
+          return;
+        }
+        result = accumulator;
+      }
+      set(result);
+    }
+  }
+
+}
@@ -2,6 +2,7 @@ package org.robotninjas.util.concurrent;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.*;
 
 import java.util.Arrays;
@@ -74,6 +75,30 @@ public class FluentFuture<I, X, O> implements ListenableFuture<O> {
     return new FluentFuture<I, O, Y>(Futures.transform(future, func, executor), this.executor);
   }
 
+  public IntFuture transformToInt(PrimitiveFunctions.ToIntFunction<? super O> func) {
+    return IntFuture.from(future, func, MoreExecutors.sameThreadExecutor());
+  }
+
+  public IntFuture transformToInt(PrimitiveFunctions.ToIntFunction<? super O> func, Executor executor) {
+    return IntFuture.from(future, func, executor);
+  }
+
+  public LongFuture transformToLong(PrimitiveFunctions.ToLongFunction<? super O> func) {
+    return LongFuture.from(future, func, MoreExecutors.sameThreadExecutor());
+  }
+
+  public LongFuture transformToLong(PrimitiveFunctions.ToLongFunction<? super O> func, Executor executor) {
+    return LongFuture.from(future, func, executor);
+  }
+
+  public DoubleFuture transformToDouble(PrimitiveFunctions.ToDoubleFunction<? super O> func) {
+    return DoubleFuture.from(future, func, MoreExecutors.sameThreadExecutor());
+  }
+
+  public DoubleFuture transformToDouble(PrimitiveFunctions.ToDoubleFunction<? super O> func, Executor executor) {
+    return DoubleFuture.from(future, func, executor);
+  }
+
   public FluentFuture<I, X, O> withFallback(FutureFallback<O> fallback) {
     return new FluentFuture<I, X, O>(Futures.withFallback(future, fallback));
   }
@@ -82,6 +107,26 @@ public class FluentFuture<I, X, O> implements ListenableFuture<O> {
     return new FluentFuture<I, X, O>(Futures.withFallback(future, fallback, executor), this.executor);
   }
 
+  /**
+   * Fall back only on failures of type {@code type}, anything else is passed on,
+   * typically used with the {@link ControlFlowException}s
+   */
+  public FluentFuture<I, X, O> withFallback(Class<? extends Throwable> type, FutureFallback<O> fallback) {
+    return withFallback(type, fallback, MoreExecutors.sameThreadExecutor());
+  }
+
+  public FluentFuture<I, X, O> withFallback(final Class<? extends Throwable> type, final FutureFallback<O> fallback, Executor executor) {
+    return withFallback(new FutureFallback<O>() {
+      @Override
+      public ListenableFuture<O> create(Throwable t) throws Exception {
+        if (type.isInstance(t)) {
+          return fallback.create(t);
+        }
+        return Futures.immediateFailedFuture(t);
+      }
+    }, executor);
+  }
+
   public FluentFuture<I, X, O> addCallback(FutureCallback<O> callback) {
     Futures.addCallback(future, callback);
     return this;
@@ -96,28 +141,105 @@ public class FluentFuture<I, X, O> implements ListenableFuture<O> {
     return Futures.makeChecked(future, func);
   }
 
+  /**
+   * Fails with a {@link PredicateMismatchException} if the value does not match
+   */
   public FluentFuture<I, O, O> filter(final Predicate<O> predicate) {
     return transform(new AsyncFunction<O, O>() {
       @Override
       public ListenableFuture<O> apply(O input) throws Exception {
         if (!predicate.apply(input)) {
-          throw new Exception("Predicate does not match");
+          return Futures.immediateFailedFuture(PredicateMismatchException.instance());
         }
         return Futures.immediateFuture(input);
       }
     });
   }
 
-  public <Y> FluentFuture<I, O, Zip<O, Y>> zip(final ListenableFuture<Y> other) {
-    return transform(new AsyncFunction<O, Zip<O, Y>>() {
-      public ListenableFuture<Zip<O, Y>> apply(final O left) throws Exception {
-        return Futures.transform(other, new Function<Y, Zip<O, Y>>() {
-          public Zip<O, Y> apply(Y right) {
-            return new Zip<O, Y>(left, right);
-          }
-        });
-      }
-    });
+  /**
+   * Pair this future's value with {@code other}'s. Cancelling the zip cancels
+   * this future but leaves {@code other} alone, it is the caller's and may be
+   * shared, the same holds for the three and four way zips.
+   */
+  public <Y> FluentFuture<I, O, Zip<O, Y>> zip(ListenableFuture<Y> other) {
+    return new FluentFuture<I, O, Zip<O, Y>>(AggregateFuture.zip(future, other), executor);
+  }
+
+  public <B, C> FluentFuture<I, O, Zip3<O, B, C>> zip(ListenableFuture<B> second, ListenableFuture<C> third) {
+    return new FluentFuture<I, O, Zip3<O, B, C>>(AggregateFuture.zip(future, second, third), executor);
+  }
+
+  public <B, C, D> FluentFuture<I, O, Zip4<O, B, C, D>> zip(ListenableFuture<B> second,
+                                                           ListenableFuture<C> third,
+                                                           ListenableFuture<D> fourth) {
+    return new FluentFuture<I, O, Zip4<O, B, C, D>>(AggregateFuture.zip(future, second, third, fourth), executor);
+  }
+
+  public static <Y> FluentFuture<Y, Y, List<Y>> allOf(ListenableFuture<? extends Y>... futures) {
+    return new FluentFuture<Y, Y, List<Y>>(AggregateFuture.<Y>allOf(futures.clone()));
+  }
+
+  public static <Y> FluentFuture<Y, Y, List<Y>> allOf(Iterable<? extends ListenableFuture<? extends Y>> futures) {
+    return new FluentFuture<Y, Y, List<Y>>(AggregateFuture.<Y>allOf(toArray(futures)));
+  }
+
+  public static <Y> FluentFuture<Y, Y, List<Y>> allOf(Iterable<? extends ListenableFuture<? extends Y>> futures, Executor executor) {
+    return new FluentFuture<Y, Y, List<Y>>(AggregateFuture.<Y>allOf(toArray(futures)), executor);
+  }
+
+  public static <Y, A> FluentFuture<Y, Y, A> reduce(Iterable<? extends ListenableFuture<? extends Y>> futures, A initial, Reducer<A, ? super Y> reducer) {
+    return new FluentFuture<Y, Y, A>(AggregateFuture.reduce(toArray(futures), initial, reducer));
+  }
+
+  public static <Y, A> FluentFuture<Y, Y, A> reduce(Iterable<? extends ListenableFuture<? extends Y>> futures, A initial, Reducer<A, ? super Y> reducer, Executor executor) {
+    return new FluentFuture<Y, Y, A>(AggregateFuture.reduce(toArray(futures), initial, reducer), executor);
+  }
+
+  /**
+   * The first of {@code futures} to succeed, the others are cancelled as soon as
+   * there is a winner. Fails with {@link AllFailedException} if all of them fail.
+   */
+  public static <Y> FluentFuture<Y, Y, Y> firstSuccessful(ListenableFuture<? extends Y>... futures) {
+    return new FluentFuture<Y, Y, Y>(RaceFuture.<Y>firstSuccessful(futures.clone()));
+  }
+
+  public static <Y> FluentFuture<Y, Y, Y> firstSuccessful(Iterable<? extends ListenableFuture<? extends Y>> futures) {
+    return new FluentFuture<Y, Y, Y>(RaceFuture.<Y>firstSuccessful(toRaceArray(futures)));
+  }
+
+  /**
+   * The first of {@code futures} to complete, successfully or not, the others
+   * are cancelled as soon as there is a winner
+   */
+  public static <Y> FluentFuture<Y, Y, Y> firstCompleted(ListenableFuture<? extends Y>... futures) {
+    return new FluentFuture<Y, Y, Y>(RaceFuture.<Y>firstCompleted(futures.clone()));
+  }
+
+  public static <Y> FluentFuture<Y, Y, Y> firstCompleted(Iterable<? extends ListenableFuture<? extends Y>> futures) {
+    return new FluentFuture<Y, Y, Y>(RaceFuture.<Y>firstCompleted(toRaceArray(futures)));
+  }
+
+  /**
+   * The first {@code required} of {@code futures} to succeed, in the order they
+   * succeeded, the others are cancelled once that many have. Fails with a
+   * {@link QuorumFailedException} as soon as too many have failed.
+   */
+  public static <Y> FluentFuture<Y, Y, List<Y>> quorum(int required, Iterable<? extends ListenableFuture<? extends Y>> futures) {
+    return quorum(Quorum.of(required), futures, Quorum.<Y>responses());
+  }
+
+  public static <Y, R> FluentFuture<Y, Y, R> quorum(Quorum quorum, Iterable<? extends ListenableFuture<? extends Y>> futures,
+                                                    QuorumResolver<Y, ? extends R> resolver) {
+    return new FluentFuture<Y, Y, R>(QuorumFuture.<Y, R>create(toRaceArray(futures), quorum, resolver));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <Y> ListenableFuture<? extends Y>[] toRaceArray(Iterable<? extends ListenableFuture<? extends Y>> futures) {
+    return (ListenableFuture<? extends Y>[]) toArray(futures);
+  }
+
+  private static ListenableFuture<?>[] toArray(Iterable<? extends ListenableFuture<?>> futures) {
+    return Iterables.toArray(futures, ListenableFuture.class);
   }
 
   @Override
@@ -158,8 +280,8 @@ public class FluentFuture<I, X, O> implements ListenableFuture<O> {
     return future.cancel(b);
   }
 
-  private static class Zip<L, R>
-  {
+  public static class Zip<L, R> {
+
     private final L left;
     private final R right;
 
@@ -178,6 +300,47 @@ public class FluentFuture<I, X, O> implements ListenableFuture<O> {
 
   }
 
+  public static class Zip3<A, B, C> {
+
+    private final A first;
+    private final B second;
+    private final C third;
+
+    Zip3(A first, B second, C third) {
+      this.first = first;
+      this.second = second;
+      this.third = third;
+    }
+
+    public A getFirst() {
+      return first;
+    }
+
+    public B getSecond() {
+      return second;
+    }
+
+    public C getThird() {
+      return third;
+    }
+
+  }
+
+  public static class Zip4<A, B, C, D> extends Zip3<A, B, C> {
+
+    private final D fourth;
+
+    Zip4(A first, B second, C third, D fourth) {
+      super(first, second, third);
+      this.fourth = fourth;
+    }
+
+    public D getFourth() {
+      return fourth;
+    }
+
+  }
+
   public static void main(String[] args) throws ExecutionException, InterruptedException {
 
     Executor executor = Executors.newCachedThreadPool();
@@ -0,0 +1,256 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static org.robotninjas.util.concurrent.PrimitiveFunctions.*;
+
+/**
+ * A future holding an unboxed {@code int}. Transforms that take primitive
+ * functions keep the value unboxed from one stage to the next, it is only
+ * boxed when read through {@link #get()}.
+ */
+public class IntFuture extends PrimitiveFuture<Integer> {
+
+  private static final IntBinaryFunction SUM = new IntBinaryFunction() {
+    @Override
+    public int apply(int left, int right) {
+      return left + right;
+    }
+  };
+
+  private static final IntBinaryFunction MIN = new IntBinaryFunction() {
+    @Override
+    public int apply(int left, int right) {
+      return Math.min(left, right);
+    }
+  };
+
+  private static final IntBinaryFunction MAX = new IntBinaryFunction() {
+    @Override
+    public int apply(int left, int right) {
+      return Math.max(left, right);
+    }
+  };
+
+  private int value;
+
+  IntFuture() {
+  }
+
+  public static IntFuture create() {
+    return new IntFuture();
+  }
+
+  public static IntFuture immediate(int value) {
+    final IntFuture future = new IntFuture();
+    future.set(value);
+    return future;
+  }
+
+  public static IntFuture immediateFailed(Throwable throwable) {
+    final IntFuture future = new IntFuture();
+    future.setException(throwable);
+    return future;
+  }
+
+  public static <I> IntFuture from(final ListenableFuture<I> source, final ToIntFunction<? super I> func, Executor executor) {
+    checkNotNull(func);
+    return chain(source, new IntFuture(), new Continuation<IntFuture>() {
+      @Override
+      public void complete(IntFuture next) throws Exception {
+        next.set(func.apply(getUninterruptibly(source)));
+      }
+    }, executor);
+  }
+
+  public boolean set(int value) {
+    synchronized (this) {
+      if (!markSucceeded()) {
+        return false;
+      }
+      this.value = value;
+    }
+    done();
+    return true;
+  }
+
+  public synchronized int getInt() throws InterruptedException, ExecutionException {
+    await();
+    return value;
+  }
+
+  public synchronized int getInt(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    await(timeout, unit);
+    return value;
+  }
+
+  /**
+   * The value of a future that is known to have succeeded
+   */
+  synchronized int doneValue() {
+    return value;
+  }
+
+  @Override
+  Integer boxed() {
+    return value;
+  }
+
+  public IntFuture transform(IntUnaryFunction func) {
+    return transform(func, sameThreadExecutor());
+  }
+
+  public IntFuture transform(final IntUnaryFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new IntFuture(), new Continuation<IntFuture>() {
+      @Override
+      public void complete(IntFuture next) throws Exception {
+        next.set(func.apply(getInt()));
+      }
+    }, executor);
+  }
+
+  public LongFuture mapToLong(IntToLongFunction func) {
+    return mapToLong(func, sameThreadExecutor());
+  }
+
+  public LongFuture mapToLong(final IntToLongFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new LongFuture(), new Continuation<LongFuture>() {
+      @Override
+      public void complete(LongFuture next) throws Exception {
+        next.set(func.apply(getInt()));
+      }
+    }, executor);
+  }
+
+  public DoubleFuture mapToDouble(IntToDoubleFunction func) {
+    return mapToDouble(func, sameThreadExecutor());
+  }
+
+  public DoubleFuture mapToDouble(final IntToDoubleFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new DoubleFuture(), new Continuation<DoubleFuture>() {
+      @Override
+      public void complete(DoubleFuture next) throws Exception {
+        next.set(func.apply(getInt()));
+      }
+    }, executor);
+  }
+
+  /**
+   * Fold every input into {@code identity} as it completes, the first failed or
+   * cancelled input fails the result
+   */
+  public static IntFuture reduce(int identity, IntBinaryFunction func, Iterable<IntFuture> futures) {
+    final Reduction reduction = new Reduction(identity, checkNotNull(func));
+    for (IntFuture future : futures) {
+      reduction.register(future);
+    }
+    reduction.arrive();
+    return reduction;
+  }
+
+  public static IntFuture sum(IntFuture... futures) {
+    return sum(Arrays.asList(futures));
+  }
+
+  public static IntFuture sum(Iterable<IntFuture> futures) {
+    return reduce(0, SUM, futures);
+  }
+
+  /**
+   * The smallest input, or {@code Integer.MAX_VALUE} if there are none
+   */
+  public static IntFuture min(IntFuture... futures) {
+    return min(Arrays.asList(futures));
+  }
+
+  public static IntFuture min(Iterable<IntFuture> futures) {
+    return reduce(Integer.MAX_VALUE, MIN, futures);
+  }
+
+  /**
+   * The largest input, or {@code Integer.MIN_VALUE} if there are none
+   */
+  public static IntFuture max(IntFuture... futures) {
+    return max(Arrays.asList(futures));
+  }
+
+  public static IntFuture max(Iterable<IntFuture> futures) {
+    return reduce(Integer.MIN_VALUE, MAX, futures);
+  }
+
+  private static final class Reduction extends IntFuture {
+
+    private final IntBinaryFunction func;
+    private int accumulator;
+    private int pending = 1;
+
+    private Reduction(int identity, IntBinaryFunction func) {
+      this.accumulator = identity;
+      this.func = func;
+    }
+
+    private void register(final IntFuture input) {
+      synchronized (this) {
+        pending++;
+      }
+      input.addListener(new Runnable() {
+        @Override
+        public void run() {
+          if (input.forwardFailure(Reduction.this)) {
+            return;
+          }
+          accept(input.doneValue());
+        }
+      }, sameThreadExecutor());
+    }
+
+    private void accept(int input) {
+      synchronized (this) {
+        if (isDone()) {
+          return;
+        }
+        accumulator = func.apply(accumulator, input);
+      }
+      arrive();
+    }
+
+    private void arrive() {
+      final int result;
+      synchronized (this) {
+        if (--pending > 0) {
+          return;
+        }
+        result = accumulator;
+      }
+      set(result);
+    }
+  }
+
+}
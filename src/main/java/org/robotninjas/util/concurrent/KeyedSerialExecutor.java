@@ -0,0 +1,255 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs tasks in submission order per key and in parallel across keys.
+ *
+ * Every key with work outstanding has its own queue, producers append to it
+ * without locking and at most one drain of that queue runs on the underlying
+ * executor at a time. A drain runs at most {@code maxTasksPerRun} tasks before
+ * handing its thread back and rescheduling itself, so one busy key cannot hold a
+ * worker indefinitely. A key's queue is discarded as soon as it drains empty.
+ *
+ * {@link #forKey(Object)} gives an {@link Executor} for one key, which can be
+ * handed to {@code CommandBuilder.withExecutor} or to a composition stage. If
+ * the underlying executor rejects a drain when it is first scheduled, the
+ * rejection is thrown to the submitting caller and the key's other queued tasks
+ * are dropped, cancelling those that are {@link Future}s. A rejected reschedule
+ * keeps draining on the current thread instead.
+ *
+ * @param <K>
+ *   The key
+ */
+public class KeyedSerialExecutor<K> {
+
+  private static final Logger log = Logger.getLogger(KeyedSerialExecutor.class.getName());
+
+  public static final int DEFAULT_MAX_TASKS_PER_RUN = 64;
+
+  private final ConcurrentMap<K, SerialQueue> queues = Maps.newConcurrentMap();
+  private final Executor executor;
+  private final int maxTasksPerRun;
+
+  public KeyedSerialExecutor(Executor executor, int maxTasksPerRun) {
+    checkArgument(maxTasksPerRun > 0, "max tasks per run must be positive");
+    this.executor = checkNotNull(executor);
+    this.maxTasksPerRun = maxTasksPerRun;
+  }
+
+  public KeyedSerialExecutor(Executor executor) {
+    this(executor, DEFAULT_MAX_TASKS_PER_RUN);
+  }
+
+  public Executor forKey(final K key) {
+    checkNotNull(key);
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        KeyedSerialExecutor.this.execute(key, command);
+      }
+    };
+  }
+
+  public void execute(K key, Runnable task) {
+    checkNotNull(key);
+    checkNotNull(task);
+    while (true) {
+      SerialQueue queue = queues.get(key);
+      if (queue == null) {
+        final SerialQueue created = new SerialQueue(key);
+        queue = queues.putIfAbsent(key, created);
+        if (queue == null) {
+          queue = created;
+        }
+      }
+      if (queue.offer(task)) {
+        return;
+      }
+      // the queue retired between lookup and offer, help remove it and retry
+      queues.remove(key, queue);
+    }
+  }
+
+  /**
+   * Keys that currently have a queue, for monitoring
+   */
+  public int getActiveKeys() {
+    return queues.size();
+  }
+
+  /**
+   * A multi-producer single-consumer queue that schedules its own drain.
+   *
+   * {@code pending} counts tasks offered and not yet run, the producer moving it
+   * from 0 to 1 schedules the drain. A drain that brings it back to 0 retires the
+   * queue by moving it to -1, after which offers fail and producers make a new
+   * queue for the key.
+   */
+  private final class SerialQueue implements Runnable {
+
+    private static final int RETIRED = -1;
+
+    private final K key;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicReference<Node> tail;
+    // only touched by the drain, successive drains are ordered by pending
+    private Node head;
+
+    private SerialQueue(K key) {
+      this.key = key;
+      this.head = new Node(null);
+      this.tail = new AtomicReference<Node>(head);
+    }
+
+    private boolean offer(Runnable task) {
+      int count;
+      do {
+        count = pending.get();
+        if (count == RETIRED) {
+          return false;
+        }
+      } while (!pending.compareAndSet(count, count + 1));
+
+      final Node node = new Node(task);
+      tail.getAndSet(node).next = node;
+
+      if (count == 0) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          abandon(task);
+          throw e;
+        }
+      }
+      return true;
+    }
+
+    private Runnable poll() {
+      Node next = head.next;
+      while (next == null) {
+        // counted but not yet linked by its producer
+        Thread.yield();
+        next = head.next;
+      }
+      head = next;
+      final Runnable task = next.task;
+      next.task = null;
+      return task;
+    }
+
+    @Override
+    public void run() {
+      do {
+        for (int ran = 0; ran < maxTasksPerRun; ran++) {
+          final Runnable task = poll();
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            log.log(Level.SEVERE, "Task for key " + key + " threw", e);
+          } catch (Error e) {
+            // the rest of the queue still needs a drain before the error escapes
+            if (taskDone() && !reschedule()) {
+              abandon(null);
+            }
+            throw e;
+          }
+          if (!taskDone()) {
+            return;
+          }
+        }
+        // more work is waiting but other keys get a turn first, unless the
+        // executor refuses to take the drain back
+      } while (!reschedule());
+    }
+
+    /**
+     * Count a task as run, returns false if that emptied the queue and this
+     * drain must stop
+     */
+    private boolean taskDone() {
+      if (pending.decrementAndGet() == 0) {
+        // either retired or a producer just scheduled a new drain
+        if (pending.compareAndSet(0, RETIRED)) {
+          queues.remove(key, this);
+        }
+        return false;
+      }
+      return true;
+    }
+
+    private boolean reschedule() {
+      try {
+        executor.execute(this);
+        return true;
+      } catch (RejectedExecutionException e) {
+        return false;
+      }
+    }
+
+    /**
+     * Retire the queue without running what is left in it, only called when no
+     * drain is running or scheduled. Dropped futures are cancelled so their
+     * callers are not left waiting, except {@code rejected} whose submitter
+     * already sees the rejection.
+     */
+    private void abandon(Runnable rejected) {
+      final int counted = pending.getAndSet(RETIRED);
+      queues.remove(key, this);
+      int dropped = 0;
+      for (int i = 0; i < counted; i++) {
+        final Runnable task = poll();
+        if (task == rejected) {
+          // only skip the submitter's own copy, the same task may be queued twice
+          rejected = null;
+          continue;
+        }
+        dropped++;
+        if (task instanceof Future) {
+          ((Future<?>) task).cancel(false);
+        }
+      }
+      if (dropped > 0) {
+        log.log(Level.SEVERE, "Dropped " + dropped + " tasks for key " + key + ", the executor rejected the drain");
+      }
+    }
+  }
+
+  private static final class Node {
+
+    private Runnable task;
+    private volatile Node next;
+
+    private Node(Runnable task) {
+      this.task = task;
+    }
+  }
+
+}
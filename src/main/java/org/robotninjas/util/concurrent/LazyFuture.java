@@ -0,0 +1,225 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * A future that describes a computation but does not start it until someone
+ * depends on the result, by adding a listener or calling {@code get}. Every
+ * consumer shares the one execution. Transforms are lazy as well, so a branch
+ * that is never consumed never runs, and neither does anything upstream of it
+ * that no other consumer needs.
+ *
+ * @param <V>
+ *   The result
+ */
+public class LazyFuture<V> implements ListenableFuture<V> {
+
+  private final Supplier<? extends ListenableFuture<V>> supplier;
+  private final SettableFuture<V> result = SettableFuture.create();
+  private final AtomicBoolean started = new AtomicBoolean();
+  private volatile ListenableFuture<V> source;
+
+  private LazyFuture(Supplier<? extends ListenableFuture<V>> supplier) {
+    this.supplier = supplier;
+  }
+
+  public static <Y> LazyFuture<Y> defer(Supplier<? extends ListenableFuture<Y>> supplier) {
+    return new LazyFuture<Y>(checkNotNull(supplier));
+  }
+
+  public static <Y, Z> LazyFuture<Z> defer(final AsyncFunction<Y, Z> func, final Y input) {
+    checkNotNull(func);
+    return new LazyFuture<Z>(new Supplier<ListenableFuture<Z>>() {
+      @Override
+      public ListenableFuture<Z> get() {
+        try {
+          return func.apply(input);
+        } catch (Exception e) {
+          return Futures.immediateFailedFuture(e);
+        }
+      }
+    });
+  }
+
+  public static <Y> LazyFuture<Y> defer(final Callable<Y> callable, final Executor executor) {
+    checkNotNull(callable);
+    checkNotNull(executor);
+    return new LazyFuture<Y>(new Supplier<ListenableFuture<Y>>() {
+      @Override
+      public ListenableFuture<Y> get() {
+        ListenableFutureTask<Y> task = ListenableFutureTask.create(callable);
+        executor.execute(task);
+        return task;
+      }
+    });
+  }
+
+  /**
+   * Start the computation if nobody has yet
+   */
+  public LazyFuture<V> start() {
+    if (!started.compareAndSet(false, true) || result.isDone()) {
+      return this;
+    }
+
+    final ListenableFuture<V> future;
+    try {
+      future = supplier.get();
+    } catch (Throwable t) {
+      result.setException(t);
+      return this;
+    }
+
+    source = future;
+    Futures.addCallback(future, new FutureCallback<V>() {
+      @Override
+      public void onSuccess(V value) {
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (future.isCancelled()) {
+          result.cancel(false);
+        } else {
+          result.setException(t);
+        }
+      }
+    });
+
+    if (result.isCancelled()) {
+      future.cancel(false);
+    }
+    return this;
+  }
+
+  public boolean isStarted() {
+    return started.get();
+  }
+
+  public <Y> LazyFuture<Y> transform(Function<? super V, ? extends Y> func) {
+    return transform(func, sameThreadExecutor());
+  }
+
+  public <Y> LazyFuture<Y> transform(final Function<? super V, ? extends Y> func, final Executor executor) {
+    checkNotNull(func);
+    return new LazyFuture<Y>(new Supplier<ListenableFuture<Y>>() {
+      @Override
+      public ListenableFuture<Y> get() {
+        return Futures.transform(LazyFuture.this, func, executor);
+      }
+    });
+  }
+
+  public <Y> LazyFuture<Y> transform(AsyncFunction<? super V, ? extends Y> func) {
+    return transform(func, sameThreadExecutor());
+  }
+
+  public <Y> LazyFuture<Y> transform(final AsyncFunction<? super V, ? extends Y> func, final Executor executor) {
+    checkNotNull(func);
+    return new LazyFuture<Y>(new Supplier<ListenableFuture<Y>>() {
+      @Override
+      public ListenableFuture<Y> get() {
+        return Futures.transform(LazyFuture.this, func, executor);
+      }
+    });
+  }
+
+  public LazyFuture<V> withFallback(FutureFallback<? extends V> fallback) {
+    return withFallback(fallback, sameThreadExecutor());
+  }
+
+  public LazyFuture<V> withFallback(final FutureFallback<? extends V> fallback, final Executor executor) {
+    checkNotNull(fallback);
+    return new LazyFuture<V>(new Supplier<ListenableFuture<V>>() {
+      @Override
+      public ListenableFuture<V> get() {
+        return Futures.withFallback(LazyFuture.this, fallback, executor);
+      }
+    });
+  }
+
+  public LazyFuture<V> addCallback(FutureCallback<? super V> callback) {
+    Futures.addCallback(this, callback);
+    return this;
+  }
+
+  public LazyFuture<V> addCallback(FutureCallback<? super V> callback, Executor executor) {
+    Futures.addCallback(this, callback, executor);
+    return this;
+  }
+
+  @Override
+  public void addListener(Runnable listener, Executor executor) {
+    result.addListener(listener, executor);
+    start();
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (result.cancel(mayInterruptIfRunning)) {
+      final ListenableFuture<V> future = source;
+      if (future != null) {
+        future.cancel(mayInterruptIfRunning);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return result.isCancelled();
+  }
+
+  @Override
+  public boolean isDone() {
+    return result.isDone();
+  }
+
+  @Override
+  public V get() throws InterruptedException, ExecutionException {
+    start();
+    return result.get();
+  }
+
+  @Override
+  public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    start();
+    return result.get(timeout, unit);
+  }
+
+}
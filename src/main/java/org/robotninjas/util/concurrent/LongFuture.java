@@ -0,0 +1,256 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static org.robotninjas.util.concurrent.PrimitiveFunctions.*;
+
+/**
+ * A future holding an unboxed {@code long}. Transforms that take primitive
+ * functions keep the value unboxed from one stage to the next, it is only
+ * boxed when read through {@link #get()}.
+ */
+public class LongFuture extends PrimitiveFuture<Long> {
+
+  private static final LongBinaryFunction SUM = new LongBinaryFunction() {
+    @Override
+    public long apply(long left, long right) {
+      return left + right;
+    }
+  };
+
+  private static final LongBinaryFunction MIN = new LongBinaryFunction() {
+    @Override
+    public long apply(long left, long right) {
+      return Math.min(left, right);
+    }
+  };
+
+  private static final LongBinaryFunction MAX = new LongBinaryFunction() {
+    @Override
+    public long apply(long left, long right) {
+      return Math.max(left, right);
+    }
+  };
+
+  private long value;
+
+  LongFuture() {
+  }
+
+  public static LongFuture create() {
+    return new LongFuture();
+  }
+
+  public static LongFuture immediate(long value) {
+    final LongFuture future = new LongFuture();
+    future.set(value);
+    return future;
+  }
+
+  public static LongFuture immediateFailed(Throwable throwable) {
+    final LongFuture future = new LongFuture();
+    future.setException(throwable);
+    return future;
+  }
+
+  public static <I> LongFuture from(final ListenableFuture<I> source, final ToLongFunction<? super I> func, Executor executor) {
+    checkNotNull(func);
+    return chain(source, new LongFuture(), new Continuation<LongFuture>() {
+      @Override
+      public void complete(LongFuture next) throws Exception {
+        next.set(func.apply(getUninterruptibly(source)));
+      }
+    }, executor);
+  }
+
+  public boolean set(long value) {
+    synchronized (this) {
+      if (!markSucceeded()) {
+        return false;
+      }
+      this.value = value;
+    }
+    done();
+    return true;
+  }
+
+  public synchronized long getLong() throws InterruptedException, ExecutionException {
+    await();
+    return value;
+  }
+
+  public synchronized long getLong(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    await(timeout, unit);
+    return value;
+  }
+
+  /**
+   * The value of a future that is known to have succeeded
+   */
+  synchronized long doneValue() {
+    return value;
+  }
+
+  @Override
+  Long boxed() {
+    return value;
+  }
+
+  public LongFuture transform(LongUnaryFunction func) {
+    return transform(func, sameThreadExecutor());
+  }
+
+  public LongFuture transform(final LongUnaryFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new LongFuture(), new Continuation<LongFuture>() {
+      @Override
+      public void complete(LongFuture next) throws Exception {
+        next.set(func.apply(getLong()));
+      }
+    }, executor);
+  }
+
+  public IntFuture mapToInt(LongToIntFunction func) {
+    return mapToInt(func, sameThreadExecutor());
+  }
+
+  public IntFuture mapToInt(final LongToIntFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new IntFuture(), new Continuation<IntFuture>() {
+      @Override
+      public void complete(IntFuture next) throws Exception {
+        next.set(func.apply(getLong()));
+      }
+    }, executor);
+  }
+
+  public DoubleFuture mapToDouble(LongToDoubleFunction func) {
+    return mapToDouble(func, sameThreadExecutor());
+  }
+
+  public DoubleFuture mapToDouble(final LongToDoubleFunction func, Executor executor) {
+    checkNotNull(func);
+    return chain(this, new DoubleFuture(), new Continuation<DoubleFuture>() {
+      @Override
+      public void complete(DoubleFuture next) throws Exception {
+        next.set(func.apply(getLong()));
+      }
+    }, executor);
+  }
+
+  /**
+   * Fold every input into {@code identity} as it completes, the first failed or
+   * cancelled input fails the result
+   */
+  public static LongFuture reduce(long identity, LongBinaryFunction func, Iterable<LongFuture> futures) {
+    final Reduction reduction = new Reduction(identity, checkNotNull(func));
+    for (LongFuture future : futures) {
+      reduction.register(future);
+    }
+    reduction.arrive();
+    return reduction;
+  }
+
+  public static LongFuture sum(LongFuture... futures) {
+    return sum(Arrays.asList(futures));
+  }
+
+  public static LongFuture sum(Iterable<LongFuture> futures) {
+    return reduce(0L, SUM, futures);
+  }
+
+  /**
+   * The smallest input, or {@code Long.MAX_VALUE} if there are none
+   */
+  public static LongFuture min(LongFuture... futures) {
+    return min(Arrays.asList(futures));
+  }
+
+  public static LongFuture min(Iterable<LongFuture> futures) {
+    return reduce(Long.MAX_VALUE, MIN, futures);
+  }
+
+  /**
+   * The largest input, or {@code Long.MIN_VALUE} if there are none
+   */
+  public static LongFuture max(LongFuture... futures) {
+    return max(Arrays.asList(futures));
+  }
+
+  public static LongFuture max(Iterable<LongFuture> futures) {
+    return reduce(Long.MIN_VALUE, MAX, futures);
+  }
+
+  private static final class Reduction extends LongFuture {
+
+    private final LongBinaryFunction func;
+    private long accumulator;
+    private int pending = 1;
+
+    private Reduction(long identity, LongBinaryFunction func) {
+      this.accumulator = identity;
+      this.func = func;
+    }
+
+    private void register(final LongFuture input) {
+      synchronized (this) {
+        pending++;
+      }
+      input.addListener(new Runnable() {
+        @Override
+        public void run() {
+          if (input.forwardFailure(Reduction.this)) {
+            return;
+          }
+          accept(input.doneValue());
+        }
+      }, sameThreadExecutor());
+    }
+
+    private void accept(long input) {
+      synchronized (this) {
+        if (isDone()) {
+          return;
+        }
+        accumulator = func.apply(accumulator, input);
+      }
+      arrive();
+    }
+
+    private void arrive() {
+      final long result;
+      synchronized (this) {
+        if (--pending > 0) {
+          return;
+        }
+        result = accumulator;
+      }
+      set(result);
+    }
+  }
+
+}
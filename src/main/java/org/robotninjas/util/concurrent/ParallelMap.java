@@ -0,0 +1,371 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import jsr166y.ForkJoinPool;
+import jsr166y.RecursiveAction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Apply one function to every item of a large collection.
+ *
+ * Results are written into a single array sized up front, in input order, and
+ * completion is tracked with one counter, so mapping N items does not build N
+ * futures joined by an N-way {@code allAsList}.
+ *
+ * An {@link AsyncFunction} is driven by {@code parallelism} workers. Each worker
+ * claims the next {@code chunkSize} items, applies the function to them one
+ * after another, then claims another chunk, so at most {@code parallelism}
+ * items are in flight at once. A worker continues on the thread that completed
+ * its last item, or on the caller's thread while items complete immediately.
+ *
+ * A {@link Function} is split recursively on a {@link ForkJoinPool} down to
+ * ranges of {@code chunkSize} items, which idle pool threads steal.
+ *
+ * In {@link FailureMode#FAIL_FAST} the first failure fails the whole map and no
+ * further items are started, in {@link FailureMode#COLLECT} every item is
+ * attempted and failures are reported alongside the values.
+ */
+public final class ParallelMap {
+
+  public enum FailureMode {
+    FAIL_FAST,
+    COLLECT
+  }
+
+  private ParallelMap() {
+  }
+
+  /**
+   * The value or failure of every item, in input order
+   *
+   * @param <O>
+   *   The output of the function
+   */
+  public static final class Results<O> {
+
+    private final List<O> values;
+    private final List<Throwable> failures;
+    private final int failureCount;
+
+    @SuppressWarnings("unchecked")
+    private Results(Object[] values, Throwable[] failures, int failureCount) {
+      this.values = Collections.unmodifiableList((List<O>) Arrays.asList(values));
+      this.failures = failures == null
+        ? Collections.<Throwable>nCopies(values.length, null)
+        : Collections.unmodifiableList(Arrays.asList(failures));
+      this.failureCount = failureCount;
+    }
+
+    /**
+     * Every item's output, null where the item failed
+     */
+    public List<O> getValues() {
+      return values;
+    }
+
+    /**
+     * Every item's failure, null where the item succeeded
+     */
+    public List<Throwable> getFailures() {
+      return failures;
+    }
+
+    public int getFailureCount() {
+      return failureCount;
+    }
+
+    public boolean isSuccessful() {
+      return failureCount == 0;
+    }
+  }
+
+  public static <I, O> ListenableFuture<List<O>> mapAll(Iterable<? extends I> items,
+                                                        AsyncFunction<? super I, ? extends O> func,
+                                                        int parallelism, int chunkSize) {
+    return values(mapAll(items, func, parallelism, chunkSize, FailureMode.FAIL_FAST));
+  }
+
+  public static <I, O> ListenableFuture<Results<O>> mapAll(Iterable<? extends I> items,
+                                                           AsyncFunction<? super I, ? extends O> func,
+                                                           int parallelism, int chunkSize, FailureMode mode) {
+    checkNotNull(func);
+    checkArgument(parallelism > 0, "parallelism must be positive");
+    checkArgument(chunkSize > 0, "chunk size must be positive");
+    final AsyncJob<I, O> job = new AsyncJob<I, O>(Iterables.toArray(items, Object.class), func, chunkSize, checkNotNull(mode));
+    job.start(parallelism);
+    return job.result;
+  }
+
+  public static <I, O> ListenableFuture<List<O>> mapAll(Iterable<? extends I> items,
+                                                        Function<? super I, ? extends O> func,
+                                                        ForkJoinPool pool, int chunkSize) {
+    return values(mapAll(items, func, pool, chunkSize, FailureMode.FAIL_FAST));
+  }
+
+  public static <I, O> ListenableFuture<Results<O>> mapAll(Iterable<? extends I> items,
+                                                           Function<? super I, ? extends O> func,
+                                                           ForkJoinPool pool, int chunkSize, FailureMode mode) {
+    checkNotNull(func);
+    checkNotNull(pool);
+    checkArgument(chunkSize > 0, "chunk size must be positive");
+    final ForkJoinJob<I, O> job = new ForkJoinJob<I, O>(Iterables.toArray(items, Object.class), func, chunkSize, checkNotNull(mode));
+    pool.execute(job.new Split(0, job.items.length, true));
+    return job.result;
+  }
+
+  private static <O> ListenableFuture<List<O>> values(ListenableFuture<Results<O>> results) {
+    return Futures.transform(results, new Function<Results<O>, List<O>>() {
+      @Override
+      public List<O> apply(Results<O> input) {
+        return input.getValues();
+      }
+    });
+  }
+
+  /**
+   * State shared by both ways of mapping, each index is written by exactly one
+   * thread and the writes are published by the counters that detect completion
+   */
+  private abstract static class Job<O> {
+
+    final Object[] items;
+    final Object[] values;
+    final Throwable[] failures;
+    final FailureMode mode;
+    final SettableFuture<Results<O>> result = SettableFuture.create();
+    private final AtomicInteger failureCount = new AtomicInteger();
+
+    Job(Object[] items, FailureMode mode) {
+      this.items = items;
+      this.values = new Object[items.length];
+      this.failures = mode == FailureMode.COLLECT ? new Throwable[items.length] : null;
+      this.mode = mode;
+    }
+
+    final boolean stopped() {
+      return result.isDone();
+    }
+
+    final void failed(int index, Throwable t) {
+      if (mode == FailureMode.FAIL_FAST) {
+        result.setException(t);
+      } else {
+        failures[index] = t;
+        failureCount.incrementAndGet();
+      }
+    }
+
+    final void finish() {
+      result.set(new Results<O>(values, failures, failureCount.get()));
+    }
+  }
+
+  private static final class AsyncJob<I, O> extends Job<O> {
+
+    private final AsyncFunction<? super I, ? extends O> func;
+    private final int chunkSize;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private List<Worker> workers;
+
+    private AsyncJob(Object[] items, AsyncFunction<? super I, ? extends O> func, int chunkSize, FailureMode mode) {
+      super(items, mode);
+      this.func = func;
+      this.chunkSize = chunkSize;
+    }
+
+    private void start(int parallelism) {
+      final int chunks = (int) ((items.length + (long) chunkSize - 1) / chunkSize);
+      final int count = Math.min(parallelism, chunks);
+      if (count == 0) {
+        finish();
+        return;
+      }
+      workers = Lists.newArrayListWithCapacity(count);
+      running.set(count);
+      for (int i = 0; i < count; i++) {
+        workers.add(new Worker());
+      }
+      result.addListener(new Runnable() {
+        @Override
+        public void run() {
+          if (result.isCancelled()) {
+            for (Worker worker : workers) {
+              worker.cancel();
+            }
+          }
+        }
+      }, sameThreadExecutor());
+      for (Worker worker : workers) {
+        worker.next();
+      }
+    }
+
+    private final class Worker {
+
+      private int index;
+      private int end;
+      private volatile ListenableFuture<?> current;
+
+      /**
+       * Start items until one is still pending, completed items are handled in
+       * this loop rather than by recursing through listeners
+       */
+      private void next() {
+        while (!stopped()) {
+          if (index == end && !claim()) {
+            break;
+          }
+          final int i = index++;
+          ListenableFuture<? extends O> future;
+          try {
+            @SuppressWarnings("unchecked")
+            final I item = (I) items[i];
+            future = func.apply(item);
+          } catch (Throwable t) {
+            future = Futures.immediateFailedFuture(t);
+          }
+          if (future.isDone()) {
+            record(i, future);
+            continue;
+          }
+          final ListenableFuture<? extends O> pending = future;
+          current = pending;
+          pending.addListener(new Runnable() {
+            @Override
+            public void run() {
+              current = null;
+              record(i, pending);
+              next();
+            }
+          }, sameThreadExecutor());
+          return;
+        }
+        if (running.decrementAndGet() == 0) {
+          finish();
+        }
+      }
+
+      private boolean claim() {
+        final int start = nextChunk.getAndAdd(chunkSize);
+        if (start >= items.length || start < 0) {
+          return false;
+        }
+        index = start;
+        end = Math.min(items.length, start + chunkSize);
+        return true;
+      }
+
+      private void record(int i, ListenableFuture<? extends O> future) {
+        try {
+          values[i] = getUninterruptibly(future);
+        } catch (ExecutionException e) {
+          failed(i, e.getCause());
+        } catch (CancellationException e) {
+          failed(i, e);
+        } catch (Throwable t) {
+          failed(i, t);
+        }
+      }
+
+      private void cancel() {
+        final ListenableFuture<?> future = current;
+        if (future != null) {
+          future.cancel(false);
+        }
+      }
+    }
+  }
+
+  private static final class ForkJoinJob<I, O> extends Job<O> {
+
+    private final Function<? super I, ? extends O> func;
+    private final int chunkSize;
+
+    private ForkJoinJob(Object[] items, Function<? super I, ? extends O> func, int chunkSize, FailureMode mode) {
+      super(items, mode);
+      this.func = func;
+      this.chunkSize = chunkSize;
+    }
+
+    private final class Split extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final int from;
+      private final int to;
+      private final boolean root;
+
+      private Split(int from, int to, boolean root) {
+        this.from = from;
+        this.to = to;
+        this.root = root;
+      }
+
+      @Override
+      protected void compute() {
+        try {
+          if (to - from <= chunkSize) {
+            apply();
+          } else if (!stopped()) {
+            final int mid = (from + to) >>> 1;
+            invokeAll(new Split(from, mid, false), new Split(mid, to, false));
+          }
+        } catch (Throwable t) {
+          if (!root) {
+            throw propagate(t);
+          }
+          result.setException(t);
+        }
+        if (root) {
+          finish();
+        }
+      }
+
+      @SuppressWarnings("unchecked")
+      private void apply() {
+        for (int i = from; i < to && !stopped(); i++) {
+          try {
+            values[i] = func.apply((I) items[i]);
+          } catch (RuntimeException e) {
+            failed(i, e);
+          }
+        }
+      }
+    }
+  }
+
+}
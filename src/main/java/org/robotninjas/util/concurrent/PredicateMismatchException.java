@@ -0,0 +1,42 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+/**
+ * A value was rejected by a filter
+ */
+public class PredicateMismatchException extends ControlFlowException {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final PredicateMismatchException INSTANCE = new PredicateMismatchException("Predicate does not match");
+
+  public PredicateMismatchException(String message) {
+    super(message);
+  }
+
+  public PredicateMismatchException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  /**
+   * The shared instance, or a new one with a stack trace in debug mode
+   */
+  public static PredicateMismatchException instance() {
+    return DEBUG ? new PredicateMismatchException("Predicate does not match") : INSTANCE;
+  }
+
+}
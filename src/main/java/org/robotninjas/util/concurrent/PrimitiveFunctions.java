@@ -0,0 +1,87 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+/**
+ * Functions over unboxed values, used to transform {@link IntFuture},
+ * {@link LongFuture} and {@link DoubleFuture} without boxing
+ */
+public final class PrimitiveFunctions {
+
+  private PrimitiveFunctions() {
+  }
+
+  public interface ToIntFunction<I> {
+    int apply(I input) throws Exception;
+  }
+
+  public interface ToLongFunction<I> {
+    long apply(I input) throws Exception;
+  }
+
+  public interface ToDoubleFunction<I> {
+    double apply(I input) throws Exception;
+  }
+
+  public interface IntUnaryFunction {
+    int apply(int input) throws Exception;
+  }
+
+  public interface IntToLongFunction {
+    long apply(int input) throws Exception;
+  }
+
+  public interface IntToDoubleFunction {
+    double apply(int input) throws Exception;
+  }
+
+  public interface IntBinaryFunction {
+    int apply(int left, int right);
+  }
+
+  public interface LongUnaryFunction {
+    long apply(long input) throws Exception;
+  }
+
+  public interface LongToIntFunction {
+    int apply(long input) throws Exception;
+  }
+
+  public interface LongToDoubleFunction {
+    double apply(long input) throws Exception;
+  }
+
+  public interface LongBinaryFunction {
+    long apply(long left, long right);
+  }
+
+  public interface DoubleUnaryFunction {
+    double apply(double input) throws Exception;
+  }
+
+  public interface DoubleToIntFunction {
+    int apply(double input) throws Exception;
+  }
+
+  public interface DoubleToLongFunction {
+    long apply(double input) throws Exception;
+  }
+
+  public interface DoubleBinaryFunction {
+    double apply(double left, double right);
+  }
+
+}
@@ -0,0 +1,221 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Completion state shared by the primitive futures. Subclasses keep their value
+ * in an unboxed field and only box it when read through {@link #get()}.
+ *
+ * @param <V>
+ *   The boxed type handed out through {@link ListenableFuture}
+ */
+abstract class PrimitiveFuture<V> implements ListenableFuture<V> {
+
+  private static final int PENDING = 0;
+  private static final int SUCCEEDED = 1;
+  private static final int FAILED = 2;
+  private static final int CANCELLED = 3;
+
+  private final ExecutionList listeners = new ExecutionList();
+  private int state = PENDING;
+  private Throwable cause;
+  private volatile ListenableFuture<?> source;
+
+  PrimitiveFuture() {
+  }
+
+  /**
+   * Box the value, called with the lock held once the future has succeeded
+   */
+  abstract V boxed();
+
+  /**
+   * Move to the succeeded state, the caller must hold the lock and store the
+   * value only if this returns true, then call {@link #done()} after releasing it
+   */
+  final boolean markSucceeded() {
+    if (state != PENDING) {
+      return false;
+    }
+    state = SUCCEEDED;
+    notifyAll();
+    return true;
+  }
+
+  final void done() {
+    listeners.execute();
+  }
+
+  public boolean setException(Throwable throwable) {
+    checkNotNull(throwable);
+    synchronized (this) {
+      if (state != PENDING) {
+        return false;
+      }
+      state = FAILED;
+      cause = throwable;
+      notifyAll();
+    }
+    done();
+    return true;
+  }
+
+  /**
+   * Cancelling a future produced by a transform also cancels the future it was
+   * transformed from
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    synchronized (this) {
+      if (state != PENDING) {
+        return false;
+      }
+      state = CANCELLED;
+      notifyAll();
+    }
+    done();
+    final ListenableFuture<?> upstream = source;
+    if (upstream != null) {
+      upstream.cancel(mayInterruptIfRunning);
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return state == CANCELLED;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return state != PENDING;
+  }
+
+  @Override
+  public void addListener(Runnable listener, Executor executor) {
+    listeners.add(listener, executor);
+  }
+
+  @Override
+  public synchronized V get() throws InterruptedException, ExecutionException {
+    await();
+    return boxed();
+  }
+
+  @Override
+  public synchronized V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    await(timeout, unit);
+    return boxed();
+  }
+
+  /**
+   * Wait for completion and throw if the future did not succeed, the caller must hold the lock
+   */
+  final void await() throws InterruptedException, ExecutionException {
+    while (state == PENDING) {
+      wait();
+    }
+    report();
+  }
+
+  final void await(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    long remaining = unit.toNanos(timeout);
+    final long deadline = System.nanoTime() + remaining;
+    while (state == PENDING) {
+      if (remaining <= 0) {
+        throw new TimeoutException();
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      remaining = deadline - System.nanoTime();
+    }
+    report();
+  }
+
+  private void report() throws ExecutionException {
+    if (state == CANCELLED) {
+      throw new CancellationException("Task was cancelled.");
+    }
+    if (state == FAILED) {
+      throw new ExecutionException(cause);
+    }
+  }
+
+  /**
+   * Completes a transformed future from the value of its source
+   */
+  interface Continuation<N extends PrimitiveFuture<?>> {
+    void complete(N next) throws Exception;
+  }
+
+  /**
+   * Run {@code continuation} once {@code source} is done. A failed or cancelled
+   * source, or a continuation that throws, fails or cancels {@code next}, and
+   * cancelling {@code next} cancels {@code source}.
+   */
+  static <N extends PrimitiveFuture<?>> N chain(ListenableFuture<?> source, final N next, final Continuation<? super N> continuation, Executor executor) {
+    checkNotNull(continuation);
+    ((PrimitiveFuture<?>) next).source = source;
+    source.addListener(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          continuation.complete(next);
+        } catch (ExecutionException e) {
+          next.setException(e.getCause());
+        } catch (CancellationException e) {
+          next.cancel(false);
+        } catch (Throwable t) {
+          next.setException(t);
+        }
+      }
+    }, executor);
+    return next;
+  }
+
+  /**
+   * Pass a failure or cancellation on to {@code next}, returns false if this
+   * future succeeded and {@code next} still has to be completed
+   */
+  final boolean forwardFailure(PrimitiveFuture<?> next) {
+    final int completed;
+    final Throwable failure;
+    synchronized (this) {
+      completed = state;
+      failure = cause;
+    }
+    if (completed == FAILED) {
+      next.setException(failure);
+      return true;
+    }
+    if (completed == CANCELLED) {
+      next.cancel(false);
+      return true;
+    }
+    return false;
+  }
+
+}
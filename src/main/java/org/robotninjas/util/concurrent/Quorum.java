@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * How many of several branches must succeed, and how long to wait for them.
+ *
+ * Without a deadline a quorum waits until {@code required} branches succeed or
+ * until enough have failed that it never can. With one, a quorum still
+ * undecided at the deadline fails with a {@link DeadlineExceededException}, or
+ * with {@link #allowPartial()} resolves whatever responses it has, as long as
+ * it has at least one.
+ */
+public final class Quorum {
+
+  private static final QuorumResolver<Object, List<Object>> RESPONSES = new QuorumResolver<Object, List<Object>>() {
+    @Override
+    public List<Object> resolve(List<Object> responses) {
+      return responses;
+    }
+  };
+
+  private final int required;
+  private final long timeoutNanos;
+  private final ScheduledExecutorService timer;
+  private final boolean partial;
+
+  private Quorum(int required, long timeoutNanos, ScheduledExecutorService timer, boolean partial) {
+    this.required = required;
+    this.timeoutNanos = timeoutNanos;
+    this.timer = timer;
+    this.partial = partial;
+  }
+
+  /**
+   * A resolver whose result is the responses themselves
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static <V> QuorumResolver<V, List<V>> responses() {
+    return (QuorumResolver) RESPONSES;
+  }
+
+  public static Quorum of(int required) {
+    checkArgument(required > 0, "required must be positive");
+    return new Quorum(required, 0, null, false);
+  }
+
+  /**
+   * Decide within {@code timeout} of the branches starting, the deadline is
+   * scheduled on {@code timer}
+   */
+  public Quorum within(long timeout, TimeUnit unit, ScheduledExecutorService timer) {
+    checkArgument(timeout > 0, "timeout must be positive");
+    return new Quorum(required, unit.toNanos(timeout), checkNotNull(timer), partial);
+  }
+
+  /**
+   * At the deadline, resolve the responses that have arrived instead of failing
+   */
+  public Quorum allowPartial() {
+    return new Quorum(required, timeoutNanos, timer, true);
+  }
+
+  public int getRequired() {
+    return required;
+  }
+
+  boolean hasDeadline() {
+    return timer != null;
+  }
+
+  long getTimeoutNanos() {
+    return timeoutNanos;
+  }
+
+  ScheduledExecutorService getTimer() {
+    return timer;
+  }
+
+  boolean isPartialAllowed() {
+    return partial;
+  }
+
+}
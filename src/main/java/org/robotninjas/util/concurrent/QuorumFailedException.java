@@ -0,0 +1,51 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Thrown when so many branches of a quorum failed that the rest could no
+ * longer make up the quorum, the cause is the first failure
+ */
+public class QuorumFailedException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int required;
+  private final ImmutableList<Throwable> failures;
+
+  public QuorumFailedException(int required, int branches, List<? extends Throwable> failures) {
+    super("Needed " + required + " of " + branches + " branches, " + failures.size() + " failed",
+      failures.isEmpty() ? null : failures.get(0));
+    this.required = required;
+    this.failures = ImmutableList.copyOf(failures);
+  }
+
+  public int getRequired() {
+    return required;
+  }
+
+  /**
+   * The failures in the order they arrived
+   */
+  public List<Throwable> getFailures() {
+    return failures;
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Completes once a quorum of its inputs has succeeded, or once too many have
+ * failed for that to happen, and cancels the inputs still running as soon as
+ * the outcome is decided either way.
+ *
+ * @param <V>
+ *   A single response
+ * @param <R>
+ *   The resolved result
+ */
+final class QuorumFuture<V, R> extends AbstractFuture<R> {
+
+  private final ListenableFuture<? extends V>[] inputs;
+  private final Quorum quorum;
+  private final QuorumResolver<V, ? extends R> resolver;
+  // guarded by this
+  private final List<V> responses = Lists.newArrayList();
+  private final List<Throwable> failures = Lists.newArrayList();
+  private boolean decided;
+  private ScheduledFuture<?> deadline;
+
+  private QuorumFuture(ListenableFuture<? extends V>[] inputs, Quorum quorum, QuorumResolver<V, ? extends R> resolver) {
+    this.inputs = inputs;
+    this.quorum = quorum;
+    this.resolver = resolver;
+  }
+
+  static <V, R> ListenableFuture<R> create(ListenableFuture<? extends V>[] inputs, Quorum quorum,
+                                           QuorumResolver<V, ? extends R> resolver) {
+    return new QuorumFuture<V, R>(inputs, quorum, resolver).start();
+  }
+
+  private QuorumFuture<V, R> start() {
+    if (inputs.length < quorum.getRequired()) {
+      decide(null, ImmutableList.<Throwable>of());
+      return this;
+    }
+    if (quorum.hasDeadline()) {
+      try {
+        final ScheduledFuture<?> scheduled = quorum.getTimer().schedule(new Runnable() {
+          @Override
+          public void run() {
+            expired();
+          }
+        }, quorum.getTimeoutNanos(), TimeUnit.NANOSECONDS);
+        synchronized (this) {
+          deadline = scheduled;
+        }
+      } catch (RejectedExecutionException e) {
+        setException(e);
+        cancelInputs();
+        return this;
+      }
+    }
+    for (int i = 0; i < inputs.length; i++) {
+      final ListenableFuture<? extends V> input = inputs[i];
+      input.addListener(new Runnable() {
+        @Override
+        public void run() {
+          onInputDone(input);
+        }
+      }, sameThreadExecutor());
+    }
+    return this;
+  }
+
+  private void onInputDone(ListenableFuture<? extends V> input) {
+    V value = null;
+    Throwable failure = null;
+    try {
+      value = getUninterruptibly(input);
+    } catch (ExecutionException e) {
+      failure = e.getCause() == null ? e : e.getCause();
+    } catch (CancellationException e) {
+      failure = e;
+    } catch (Throwable t) {
+      failure = t;
+    }
+
+    final List<V> quorumResponses;
+    final List<Throwable> quorumFailures;
+    synchronized (this) {
+      if (decided) {
+        return;
+      }
+      if (failure == null) {
+        responses.add(value);
+        if (responses.size() < quorum.getRequired()) {
+          return;
+        }
+        quorumResponses = snapshot();
+        quorumFailures = null;
+      } else {
+        failures.add(failure);
+        if (inputs.length - failures.size() >= quorum.getRequired()) {
+          return;
+        }
+        quorumResponses = null;
+        quorumFailures = ImmutableList.copyOf(failures);
+      }
+      decided = true;
+    }
+    decide(quorumResponses, quorumFailures);
+  }
+
+  private void expired() {
+    final List<V> partial;
+    synchronized (this) {
+      if (decided) {
+        return;
+      }
+      decided = true;
+      partial = snapshot();
+    }
+    decide(quorum.isPartialAllowed() && !partial.isEmpty() ? partial : null, null);
+  }
+
+  /**
+   * The responses so far, which may include nulls, the caller must hold the lock
+   */
+  private List<V> snapshot() {
+    return Collections.unmodifiableList(new ArrayList<V>(responses));
+  }
+
+  /**
+   * Complete with the resolved {@code responses} if there are any, otherwise
+   * fail with {@code failures} or, if those are null too, the deadline
+   */
+  private void decide(List<V> quorumResponses, List<Throwable> quorumFailures) {
+    // losing branches are cancelled before anyone sees the outcome
+    cancelInputs();
+    if (quorumResponses != null) {
+      try {
+        set(resolver.resolve(quorumResponses));
+      } catch (Throwable t) {
+        setException(t);
+      }
+    } else if (quorumFailures != null) {
+      setException(new QuorumFailedException(quorum.getRequired(), inputs.length, quorumFailures));
+    } else {
+      setException(DeadlineExceededException.instance());
+    }
+  }
+
+  private void cancelInputs() {
+    final ScheduledFuture<?> scheduled;
+    synchronized (this) {
+      decided = true;
+      scheduled = deadline;
+    }
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
+    for (ListenableFuture<? extends V> input : inputs) {
+      input.cancel(true);
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (super.cancel(mayInterruptIfRunning)) {
+      cancelInputs();
+      return true;
+    }
+    return false;
+  }
+
+}
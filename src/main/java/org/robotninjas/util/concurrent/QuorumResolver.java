@@ -0,0 +1,38 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import java.util.List;
+
+/**
+ * Merges the responses that made up a quorum into one result, for instance by
+ * picking the newest version or reconciling conflicting replicas
+ *
+ * @param <V>
+ *   A single response
+ * @param <R>
+ *   The merged result
+ */
+public interface QuorumResolver<V, R> {
+
+  /**
+   * @param responses
+   *   The successful responses in the order they arrived, fewer than the quorum
+   *   only when a deadline allowed partial results
+   */
+  R resolve(List<V> responses) throws Exception;
+
+}
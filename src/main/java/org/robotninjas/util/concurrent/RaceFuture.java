@@ -0,0 +1,134 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Completes with the first of several alternatives and cancels the rest.
+ *
+ * When racing for the first success a failed alternative is only recorded, the
+ * race fails with an {@link AllFailedException} once every alternative has
+ * failed. When racing for the first completion, whatever finishes first wins.
+ *
+ * @param <V>
+ *   The result
+ */
+final class RaceFuture<V> extends AbstractFuture<V> {
+
+  private static final AtomicIntegerFieldUpdater<RaceFuture<?>> PENDING = pendingUpdater();
+
+  private final ListenableFuture<? extends V>[] inputs;
+  private final boolean requireSuccess;
+  private final Throwable[] failures;
+  private volatile int pending;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static AtomicIntegerFieldUpdater<RaceFuture<?>> pendingUpdater() {
+    return (AtomicIntegerFieldUpdater) AtomicIntegerFieldUpdater.newUpdater(RaceFuture.class, "pending");
+  }
+
+  private RaceFuture(ListenableFuture<? extends V>[] inputs, boolean requireSuccess) {
+    this.inputs = inputs;
+    this.requireSuccess = requireSuccess;
+    this.failures = requireSuccess ? new Throwable[inputs.length] : null;
+    this.pending = inputs.length;
+  }
+
+  static <V> ListenableFuture<V> firstSuccessful(ListenableFuture<? extends V>[] inputs) {
+    return new RaceFuture<V>(inputs, true).start();
+  }
+
+  static <V> ListenableFuture<V> firstCompleted(ListenableFuture<? extends V>[] inputs) {
+    return new RaceFuture<V>(inputs, false).start();
+  }
+
+  private RaceFuture<V> start() {
+    if (inputs.length == 0) {
+      setException(new AllFailedException(Arrays.<Throwable>asList()));
+      return this;
+    }
+    for (int i = 0; i < inputs.length; i++) {
+      final int index = i;
+      inputs[i].addListener(new Runnable() {
+        @Override
+        public void run() {
+          onInputDone(index);
+        }
+      }, sameThreadExecutor());
+    }
+    return this;
+  }
+
+  private void onInputDone(int index) {
+    if (isDone()) {
+      return;
+    }
+    final ListenableFuture<? extends V> input = inputs[index];
+    try {
+      if (set(getUninterruptibly(input))) {
+        cancelAllBut(index);
+      }
+    } catch (ExecutionException e) {
+      lost(index, e.getCause());
+    } catch (CancellationException e) {
+      lost(index, e);
+    } catch (Throwable t) {
+      lost(index, t);
+    }
+  }
+
+  private void lost(int index, Throwable failure) {
+    if (!requireSuccess) {
+      final boolean decided = failure instanceof CancellationException ? super.cancel(false) : setException(failure);
+      if (decided) {
+        cancelAllBut(index);
+      }
+      return;
+    }
+    failures[index] = failure;
+    if (PENDING.decrementAndGet(this) == 0) {
+      setException(new AllFailedException(Arrays.asList(failures)));
+    }
+  }
+
+  private void cancelAllBut(int winner) {
+    for (int i = 0; i < inputs.length; i++) {
+      if (i != winner) {
+        inputs[i].cancel(true);
+      }
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (super.cancel(mayInterruptIfRunning)) {
+      cancelAllBut(-1);
+      return true;
+    }
+    return false;
+  }
+
+}
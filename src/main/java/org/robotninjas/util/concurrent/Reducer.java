@@ -0,0 +1,30 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+/**
+ * Folds a value into an accumulator
+ *
+ * @param <A>
+ *   The accumulator
+ * @param <V>
+ *   The value being folded in
+ */
+public interface Reducer<A, V> {
+
+  A reduce(A accumulator, V value) throws Exception;
+
+}
@@ -0,0 +1,314 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * A semaphore over a quantity such as bytes of memory, whose acquires are
+ * futures rather than blocking calls.
+ *
+ * Acquires are granted strictly in arrival order, a large request at the head
+ * of the line holds back smaller ones behind it so it cannot be starved. A
+ * request larger than the whole capacity can never be granted as is, what
+ * happens to it is chosen up front with {@link Oversized}.
+ *
+ * {@link #submit(long, AsyncFunction, Object)} reserves, runs a function and
+ * releases once the function's result completes. The function runs on the
+ * thread that made room for it, which is the caller's thread when there is
+ * room right away and otherwise whichever thread released capacity, so work
+ * that should not run there belongs on an executor of its own.
+ */
+public class WeightedSemaphore {
+
+  public enum Oversized {
+    /**
+     * Fail the request with a {@link RejectedException}
+     */
+    REJECT,
+    /**
+     * Wait for the whole capacity to be free and take all of it
+     */
+    EXCLUSIVE
+  }
+
+  private final long capacity;
+  private final Oversized oversized;
+  private final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+  // waiters granted on this thread that an outer call to complete() will finish
+  private final ThreadLocal<ArrayDeque<Waiter>> completing = new ThreadLocal<ArrayDeque<Waiter>>();
+  // guarded by this
+  private long available;
+
+  public WeightedSemaphore(long capacity, Oversized oversized) {
+    checkArgument(capacity > 0, "capacity must be positive");
+    this.capacity = capacity;
+    this.available = capacity;
+    this.oversized = checkNotNull(oversized);
+  }
+
+  public WeightedSemaphore(long capacity) {
+    this(capacity, Oversized.REJECT);
+  }
+
+  /**
+   * Reserve {@code weight}, the future completes once it is reserved and
+   * cancelling it before then gives up the place in line. Every successful
+   * acquire must be matched by a {@link #release(long)} of the same weight.
+   */
+  public ListenableFuture<Void> acquire(long weight) {
+    checkArgument(weight >= 0, "weight must not be negative");
+    if (weight > capacity && oversized == Oversized.REJECT) {
+      return Futures.immediateFailedFuture(
+        new RejectedException("Request of " + weight + " exceeds capacity of " + capacity));
+    }
+    final long reserved = Math.min(weight, capacity);
+    synchronized (this) {
+      if (waiters.isEmpty() && reserved <= available) {
+        available -= reserved;
+        return Futures.immediateFuture(null);
+      }
+      final Waiter waiter = new Waiter(reserved);
+      waiters.add(waiter);
+      return waiter;
+    }
+  }
+
+  /**
+   * Reserve {@code weight} only if that is possible right now without jumping the line
+   */
+  public boolean tryAcquire(long weight) {
+    checkArgument(weight >= 0, "weight must not be negative");
+    if (weight > capacity && oversized == Oversized.REJECT) {
+      return false;
+    }
+    final long reserved = Math.min(weight, capacity);
+    synchronized (this) {
+      if (waiters.isEmpty() && reserved <= available) {
+        available -= reserved;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  public void release(long weight) {
+    checkArgument(weight >= 0, "weight must not be negative");
+    final List<Waiter> granted;
+    synchronized (this) {
+      available = Math.min(capacity, available + Math.min(weight, capacity));
+      granted = grant();
+    }
+    complete(granted);
+  }
+
+  /**
+   * Run {@code func} once {@code weight} is reserved and release it when the
+   * function's result completes. Cancelling the returned future while it waits
+   * gives up its place in line, once running the cancellation is passed to the
+   * function's result.
+   */
+  public <I, O> ListenableFuture<O> submit(final long weight, final AsyncFunction<? super I, ? extends O> func, final I input) {
+    checkNotNull(func);
+    final ListenableFuture<Void> permit = acquire(weight);
+    final SettableFuture<O> result = SettableFuture.create();
+    permit.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (permit.isCancelled()) {
+          return;
+        }
+        try {
+          permit.get();
+        } catch (Exception e) {
+          result.setException(e.getCause() == null ? e : e.getCause());
+          return;
+        }
+        runReserved(weight, func, input, result);
+      }
+    }, sameThreadExecutor());
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          permit.cancel(false);
+        }
+      }
+    }, sameThreadExecutor());
+    return result;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public synchronized long getAvailable() {
+    return available;
+  }
+
+  public synchronized int getWaiting() {
+    return waiters.size();
+  }
+
+  private <I, O> void runReserved(final long weight, AsyncFunction<? super I, ? extends O> func, I input, final SettableFuture<O> result) {
+    if (result.isCancelled()) {
+      release(weight);
+      return;
+    }
+
+    final ListenableFuture<? extends O> output;
+    try {
+      output = func.apply(input);
+    } catch (Throwable t) {
+      release(weight);
+      result.setException(t);
+      return;
+    }
+
+    output.addListener(new Runnable() {
+      @Override
+      public void run() {
+        release(weight);
+      }
+    }, sameThreadExecutor());
+    Futures.addCallback(output, new FutureCallback<O>() {
+      @Override
+      public void onSuccess(O value) {
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (output.isCancelled()) {
+          result.cancel(false);
+        } else {
+          result.setException(t);
+        }
+      }
+    });
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          output.cancel(false);
+        }
+      }
+    }, sameThreadExecutor());
+  }
+
+  /**
+   * Take every waiter at the head of the line that now fits, the caller must hold the lock
+   */
+  private List<Waiter> grant() {
+    List<Waiter> granted = null;
+    Waiter head;
+    while ((head = waiters.peek()) != null) {
+      if (head.isCancelled()) {
+        waiters.poll();
+        continue;
+      }
+      if (head.weight > available) {
+        break;
+      }
+      waiters.poll();
+      available -= head.weight;
+      if (granted == null) {
+        granted = Lists.newArrayList();
+      }
+      granted.add(head);
+    }
+    return granted;
+  }
+
+  /**
+   * Complete granted waiters outside the lock, handing back what a waiter
+   * cancelled in the meantime had been given. Completing a waiter can run work
+   * that releases again on this thread, the waiters that grants are queued
+   * and completed by this loop rather than by recursing.
+   */
+  private void complete(List<Waiter> granted) {
+    if (granted == null) {
+      return;
+    }
+    ArrayDeque<Waiter> queue = completing.get();
+    if (queue != null) {
+      queue.addAll(granted);
+      return;
+    }
+    queue = new ArrayDeque<Waiter>(granted);
+    completing.set(queue);
+    try {
+      Waiter waiter;
+      while ((waiter = queue.poll()) != null) {
+        if (!waiter.set(null)) {
+          release(waiter.weight);
+        }
+      }
+    } finally {
+      completing.remove();
+    }
+  }
+
+  private void cancelled(Waiter waiter) {
+    final List<Waiter> granted;
+    synchronized (this) {
+      final boolean wasHead = waiters.peek() == waiter;
+      if (!waiters.remove(waiter) || !wasHead) {
+        return;
+      }
+      // whoever was behind it may fit now
+      granted = grant();
+    }
+    complete(granted);
+  }
+
+  private final class Waiter extends AbstractFuture<Void> {
+
+    private final long weight;
+
+    private Waiter(long weight) {
+      this.weight = weight;
+    }
+
+    @Override
+    protected boolean set(Void value) {
+      return super.set(value);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (super.cancel(mayInterruptIfRunning)) {
+        cancelled(this);
+        return true;
+      }
+      return false;
+    }
+  }
+
+}
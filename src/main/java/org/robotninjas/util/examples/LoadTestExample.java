@@ -0,0 +1,77 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.examples;
+
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.robotninjas.util.command.AsyncCommand;
+import org.robotninjas.util.command.CommandBuilder;
+import org.robotninjas.util.loadtest.LoadGenerator;
+import org.robotninjas.util.loadtest.LoadReport;
+import org.robotninjas.util.loadtest.StubBackend;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+public class LoadTestExample {
+
+  public static void main(String[] args) {
+
+    StubBackend backend = StubBackend.builder()
+      .withLatency(StubBackend.Latency.logNormal(5, TimeUnit.MILLISECONDS, 0.8))
+      .withErrorRate(0.01)
+      .withErrorBursts(5, 1, TimeUnit.SECONDS, 0.5)
+      .withStalls(7, 1, TimeUnit.SECONDS)
+      .build();
+
+    LoadGenerator generator = LoadGenerator.builder()
+      .withRate(500)
+      .withDuration(15, TimeUnit.SECONDS)
+      .build();
+
+    ExecutorService bounded = newFixedThreadPool(16);
+    AsyncCommand<String> plain = CommandBuilder.builder()
+      .withExecutor(bounded)
+      .build(backend.callable("ok"));
+
+    ExecutorService unbounded = newCachedThreadPool();
+    AsyncCommand<String> withFallback = CommandBuilder.builder()
+      .withExecutor(unbounded)
+      .build(backend.callable("ok"), new FutureFallback<String>() {
+        @Override
+        public ListenableFuture<String> create(Throwable t) throws Exception {
+          return immediateFuture("fallback");
+        }
+      });
+
+    LoadReport first = generator.run(plain);
+    System.out.println("fixed pool of 16, no fallback");
+    System.out.println(first);
+
+    LoadReport second = generator.run(withFallback);
+    System.out.println("cached pool, fallback");
+    System.out.println(second);
+
+    bounded.shutdown();
+    unbounded.shutdown();
+    backend.shutdown();
+  }
+
+}
@@ -0,0 +1,146 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.jfr;
+
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import org.robotninjas.util.concurrent.TimedOutException;
+import org.robotninjas.util.trace.Span;
+import org.robotninjas.util.trace.Tracer;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reports the library's instrumentation as Java Flight Recorder events.
+ *
+ * Call {@link #install()} once at startup. Every event type can then be turned
+ * on and off, or given a threshold, through the recording's settings under the
+ * names {@code org.robotninjas.util.*}. A hook whose event is disabled returns
+ * {@link Span#NOOP} without starting a clock, so a recording that leaves these
+ * events off costs next to nothing. Commands are still timed when only
+ * {@code CommandTimeout} is on, since a timeout is only seen when the command
+ * ends.
+ *
+ * This package needs {@code jdk.jfr}, and the library is built for JDK 11 or
+ * later.
+ */
+public class JfrTracer extends Tracer {
+
+  public static void install() {
+    Tracer.install(new JfrTracer());
+  }
+
+  @Override
+  public Span command(String name) {
+    final CommandEvent event = new CommandEvent();
+    if (!event.isEnabled() && !new TimeoutEvent().isEnabled()) {
+      return Span.NOOP;
+    }
+    return begin(event, name);
+  }
+
+  @Override
+  public Span queueWait(String name) {
+    return start(new QueueWaitEvent(), name);
+  }
+
+  @Override
+  public Span attempt(String name, int attempt) {
+    final AttemptEvent event = new AttemptEvent();
+    if (!event.isEnabled()) {
+      return Span.NOOP;
+    }
+    event.attempt = attempt;
+    return start(event, name);
+  }
+
+  @Override
+  public void fallback(String name, Throwable cause) {
+    final FallbackEvent event = new FallbackEvent();
+    if (event.shouldCommit()) {
+      event.name = name;
+      event.failure = cause.getClass().getName();
+      event.commit();
+    }
+  }
+
+  @Override
+  public Span stage(String name) {
+    return start(new StageEvent(), name);
+  }
+
+  @Override
+  public Span fanOut(String kind, int branches) {
+    final FanOutEvent event = new FanOutEvent();
+    if (!event.isEnabled()) {
+      return Span.NOOP;
+    }
+    event.branches = branches;
+    return start(event, kind);
+  }
+
+  private static Span start(LibraryEvent event, String name) {
+    if (!event.isEnabled()) {
+      return Span.NOOP;
+    }
+    return begin(event, name);
+  }
+
+  private static Span begin(LibraryEvent event, String name) {
+    event.name = name;
+    event.begin();
+    return new EventSpan(event);
+  }
+
+  private static boolean isTimeout(Throwable failure) {
+    return failure instanceof TimeoutException
+      || failure instanceof UncheckedTimeoutException
+      || failure instanceof TimedOutException;
+  }
+
+  private static final class EventSpan extends Span {
+
+    private final LibraryEvent event;
+
+    private EventSpan(LibraryEvent event) {
+      this.event = event;
+    }
+
+    @Override
+    public void end(@Nullable Throwable failure) {
+      event.end();
+      if (event instanceof CommandEvent && isTimeout(failure)) {
+        timedOut(event.name, failure);
+      }
+      // false for a command span kept only to catch timeouts
+      if (event.shouldCommit()) {
+        event.succeeded = failure == null;
+        event.failure = failure == null ? null : failure.getClass().getName();
+        event.commit();
+      }
+    }
+
+    private static void timedOut(String name, Throwable failure) {
+      final TimeoutEvent event = new TimeoutEvent();
+      if (event.shouldCommit()) {
+        event.name = name;
+        event.failure = failure.getClass().getName();
+        event.commit();
+      }
+    }
+  }
+
+}
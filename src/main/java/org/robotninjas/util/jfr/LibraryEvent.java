@@ -0,0 +1,40 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Fields shared by the library's events
+ */
+@Category("AsyncUtils")
+@StackTrace(false)
+abstract class LibraryEvent extends jdk.jfr.Event {
+
+  @Label("Name")
+  String name;
+
+  @Label("Succeeded")
+  boolean succeeded;
+
+  @Label("Failure")
+  @Description("Class of the exception the interval ended with")
+  String failure;
+
+}
@@ -0,0 +1,572 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.journal;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.robotninjas.util.command.AsyncCommand;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * A write-ahead journal of command intents and completions.
+ *
+ * Records are appended to fixed size memory-mapped segment files. An append only
+ * copies the record into the mapping, a single flusher thread then forces the
+ * bytes written since its last pass, so concurrent appends share one fsync.
+ * The future returned by {@link #logIntent(byte[])} completes once the intent is
+ * durable. Segments are deleted, oldest first, once every intent in them has
+ * completed.
+ *
+ * Opening a journal scans the existing segments, intents without a completion
+ * are available from {@link #getUnfinished()} and can be re-run with
+ * {@link #replay(JournalDecoder)}.
+ */
+public class CommandJournal implements Closeable {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final String PREFIX = "journal-";
+  private static final String SUFFIX = ".log";
+  private static final byte INTENT = 1;
+  private static final byte COMPLETION = 2;
+  // length, crc
+  private static final int HEADER = 8;
+  // type, id
+  private static final int BODY = 9;
+  // MappedByteBuffer.force(int, int), JDK 13 and later
+  private static final Method FORCE_RANGE = forceRangeMethod();
+  // sun.misc.Unsafe.invokeCleaner(ByteBuffer), JDK 9 and later
+  private static final Object UNSAFE = unsafe();
+  private static final Method INVOKE_CLEANER = invokeCleanerMethod();
+
+  private final File directory;
+  private final int segmentSize;
+  private final LinkedList<Segment> segments = Lists.newLinkedList();
+  // the segment holding each intent without a completion
+  private final Map<Long, Segment> owners = Maps.newHashMap();
+  private final ImmutableList<JournalEntry> unfinished;
+  private final Thread flusher;
+  private List<Segment> dirty = Lists.newArrayList();
+  private List<SettableFuture<JournalEntry>> waiting = Lists.newArrayList();
+  private List<JournalEntry> entries = Lists.newArrayList();
+  private Segment current;
+  private long nextId;
+  private long nextSequence;
+  private boolean closed;
+
+  private CommandJournal(File directory, int segmentSize) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.unfinished = recover();
+    this.current = newSegment();
+    this.flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flushLoop();
+      }
+    }, "command-journal-flusher");
+    this.flusher.setDaemon(true);
+  }
+
+  public static CommandJournal open(File directory) throws IOException {
+    return open(directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public static CommandJournal open(File directory, int segmentSize) throws IOException {
+    checkArgument(segmentSize > HEADER + BODY, "segment size too small");
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create journal directory " + directory);
+    }
+    final CommandJournal journal = new CommandJournal(directory, segmentSize);
+    journal.flusher.start();
+    return journal;
+  }
+
+  /**
+   * Intents found when the journal was opened that never completed
+   */
+  public List<JournalEntry> getUnfinished() {
+    return unfinished;
+  }
+
+  /**
+   * Append an intent, the returned future completes once the intent is durable
+   */
+  public ListenableFuture<JournalEntry> logIntent(byte[] intent) throws IOException {
+    checkNotNull(intent);
+    final SettableFuture<JournalEntry> durable = SettableFuture.create();
+    synchronized (this) {
+      checkState(!closed, "journal is closed");
+      final long id = nextId++;
+      final Segment segment = append(INTENT, id, intent);
+      segment.open++;
+      owners.put(id, segment);
+      waiting.add(durable);
+      entries.add(new JournalEntry(id, intent));
+      notifyAll();
+    }
+    return durable;
+  }
+
+  /**
+   * Record that an intent's command has finished, completions are made durable
+   * with the next batch but nobody waits on them
+   */
+  public void logCompletion(JournalEntry entry) throws IOException {
+    synchronized (this) {
+      checkState(!closed, "journal is closed");
+      final Segment segment = owners.get(entry.getId());
+      if (segment == null) {
+        // already completed
+        return;
+      }
+      append(COMPLETION, entry.getId(), new byte[0]);
+      owners.remove(entry.getId());
+      segment.open--;
+      reclaim();
+    }
+  }
+
+  /**
+   * Journal every execution of {@code command}, the intent is made durable
+   * before the command runs on {@code executor} and its completion is logged
+   * whether it succeeds or fails
+   */
+  public <V> AsyncCommand<V> journaled(final AsyncCommand<V> command, final byte[] intent, final Executor executor) {
+    checkNotNull(command);
+    checkNotNull(intent);
+    checkNotNull(executor);
+    return new AsyncCommand<V>() {
+      @Override
+      public ListenableFuture<V> execute() throws Exception {
+        return Futures.transform(logIntent(intent), new AsyncFunction<JournalEntry, V>() {
+          @Override
+          public ListenableFuture<V> apply(JournalEntry entry) throws Exception {
+            return run(command, entry);
+          }
+        }, executor);
+      }
+    };
+  }
+
+  /**
+   * Re-run every unfinished intent found on open, logging a completion for each
+   * as it finishes
+   */
+  public ListenableFuture<List<Object>> replay(JournalDecoder decoder) {
+    checkNotNull(decoder);
+    final List<ListenableFuture<?>> results = Lists.newArrayList();
+    for (JournalEntry entry : unfinished) {
+      try {
+        results.add(run((AsyncCommand<Object>) decoder.decode(entry.getIntent()), entry));
+      } catch (Exception e) {
+        results.add(Futures.immediateFailedFuture(e));
+      }
+    }
+    return Futures.allAsList((List) results);
+  }
+
+  private <V> ListenableFuture<V> run(AsyncCommand<V> command, final JournalEntry entry) throws Exception {
+    final ListenableFuture<V> result;
+    try {
+      result = command.execute();
+    } catch (Exception e) {
+      logCompletion(entry);
+      throw e;
+    }
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          logCompletion(entry);
+        } catch (IOException e) {
+          // the intent stays unfinished and is replayed on the next open
+        } catch (IllegalStateException e) {
+          // closed while the command was running, same as above
+        }
+      }
+    }, sameThreadExecutor());
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    try {
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      IOException failure = null;
+      for (Segment segment : segments) {
+        if (segment.released) {
+          continue;
+        }
+        try {
+          force(segment.buffer, segment.forced, segment.written);
+          segment.channel.close();
+        } catch (IOException e) {
+          failure = e;
+        }
+        if (!flusher.isAlive()) {
+          segment.released = true;
+          unmap(segment.buffer);
+        }
+      }
+      segments.clear();
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private Segment append(byte type, long id, byte[] payload) throws IOException {
+    final int length = BODY + payload.length;
+    checkArgument(HEADER + length <= segmentSize, "record larger than a segment");
+
+    if (current.buffer.remaining() < HEADER + length) {
+      dirty.add(current);
+      current = newSegment();
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(type);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      crc.update((int) (id >>> shift));
+    }
+    crc.update(payload);
+
+    // write the body first so a reader never sees a length without its record
+    final MappedByteBuffer buffer = current.buffer;
+    final int start = buffer.position();
+    buffer.position(start + HEADER);
+    buffer.put(type).putLong(id).put(payload);
+    buffer.putInt(start + 4, (int) crc.getValue());
+    buffer.putInt(start, length);
+    current.written = buffer.position();
+    return current;
+  }
+
+  private void reclaim() {
+    final Iterator<Segment> itr = segments.iterator();
+    while (itr.hasNext()) {
+      final Segment oldest = itr.next();
+      if (oldest == current || oldest.open > 0 || oldest.flushing || dirty.contains(oldest)) {
+        return;
+      }
+      try {
+        oldest.channel.close();
+      } catch (IOException e) {
+        return;
+      }
+      // release the mapping now rather than at the next GC so the file can be
+      // deleted on every platform
+      if (!oldest.released) {
+        oldest.released = true;
+        unmap(oldest.buffer);
+      }
+      // later segments may hold completions for intents in this one, so stop at
+      // the first segment we cannot remove
+      if (!oldest.file.delete()) {
+        return;
+      }
+      itr.remove();
+    }
+  }
+
+  private void flushLoop() {
+    while (true) {
+      final List<Segment> toForce;
+      final int[] limits;
+      final List<SettableFuture<JournalEntry>> batch;
+      final List<JournalEntry> written;
+      synchronized (this) {
+        while (waiting.isEmpty() && dirty.isEmpty() && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            closed = true;
+          }
+        }
+        if (closed && waiting.isEmpty() && dirty.isEmpty()) {
+          return;
+        }
+        toForce = dirty;
+        toForce.add(current);
+        dirty = Lists.newArrayList();
+        limits = new int[toForce.size()];
+        for (int i = 0; i < limits.length; i++) {
+          final Segment segment = toForce.get(i);
+          segment.flushing = true;
+          limits[i] = segment.written;
+        }
+        batch = waiting;
+        waiting = Lists.newArrayList();
+        written = entries;
+        entries = Lists.newArrayList();
+      }
+
+      Throwable failure = null;
+      for (int i = 0; i < limits.length; i++) {
+        final Segment segment = toForce.get(i);
+        try {
+          force(segment.buffer, segment.forced, limits[i]);
+          segment.forced = limits[i];
+        } catch (Throwable t) {
+          failure = t;
+        }
+      }
+
+      for (int i = 0; i < batch.size(); i++) {
+        if (failure == null) {
+          batch.get(i).set(written.get(i));
+        } else {
+          batch.get(i).setException(failure);
+        }
+      }
+
+      synchronized (this) {
+        for (Segment segment : toForce) {
+          segment.flushing = false;
+        }
+        reclaim();
+      }
+    }
+  }
+
+  private ImmutableList<JournalEntry> recover() throws IOException {
+    final File[] files = directory.listFiles();
+    final List<File> logs = Lists.newArrayList();
+    for (File file : files == null ? new File[0] : files) {
+      if (file.getName().startsWith(PREFIX) && file.getName().endsWith(SUFFIX)) {
+        logs.add(file);
+      }
+    }
+    final File[] sorted = logs.toArray(new File[logs.size()]);
+    Arrays.sort(sorted);
+
+    final Map<Long, JournalEntry> open = new LinkedHashMap<Long, JournalEntry>();
+    for (File file : sorted) {
+      final Segment segment = openSegment(file);
+      nextSequence = Math.max(nextSequence, sequenceOf(file) + 1);
+      segments.add(segment);
+      scan(segment, open);
+    }
+    for (Segment segment : owners.values()) {
+      segment.open++;
+    }
+    reclaim();
+    return ImmutableList.copyOf(open.values());
+  }
+
+  private void scan(Segment segment, Map<Long, JournalEntry> open) {
+    final MappedByteBuffer buffer = segment.buffer;
+    while (buffer.remaining() >= HEADER + BODY) {
+      final int start = buffer.position();
+      final int length = buffer.getInt(start);
+      final int checksum = buffer.getInt(start + 4);
+      if (length < BODY || length > buffer.remaining() - HEADER) {
+        break;
+      }
+      final byte[] body = new byte[length];
+      buffer.position(start + HEADER);
+      buffer.get(body);
+      final CRC32 crc = new CRC32();
+      crc.update(body);
+      if ((int) crc.getValue() != checksum) {
+        // torn write, nothing after it was acknowledged
+        buffer.position(start);
+        break;
+      }
+      final long id = readLong(body, 1);
+      nextId = Math.max(nextId, id + 1);
+      if (body[0] == INTENT) {
+        open.put(id, new JournalEntry(id, Arrays.copyOfRange(body, BODY, length)));
+        owners.put(id, segment);
+      } else if (body[0] == COMPLETION) {
+        open.remove(id);
+        owners.remove(id);
+      }
+    }
+    segment.written = buffer.position();
+    segment.forced = segment.written;
+  }
+
+  private static long readLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (bytes[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  /**
+   * Force bytes {@code [from, to)} of a mapping, or the whole mapping where the
+   * JDK cannot force a range
+   */
+  private static void force(MappedByteBuffer buffer, int from, int to) throws IOException {
+    if (to <= from) {
+      return;
+    }
+    if (FORCE_RANGE == null) {
+      buffer.force();
+      return;
+    }
+    try {
+      FORCE_RANGE.invoke(buffer, from, to - from);
+    } catch (IllegalAccessException e) {
+      buffer.force();
+    } catch (InvocationTargetException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw (Error) cause;
+    }
+  }
+
+  /**
+   * Release a mapping that will never be touched again, where the JDK does not
+   * allow it the mapping is released when it is collected
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    if (INVOKE_CLEANER == null) {
+      return;
+    }
+    try {
+      INVOKE_CLEANER.invoke(UNSAFE, buffer);
+    } catch (Exception e) {
+      // left to the garbage collector
+    }
+  }
+
+  private static Method forceRangeMethod() {
+    try {
+      return MappedByteBuffer.class.getMethod("force", int.class, int.class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Object unsafe() {
+    try {
+      final Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return field.get(null);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static Method invokeCleanerMethod() {
+    if (UNSAFE == null) {
+      return null;
+    }
+    try {
+      return UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static long sequenceOf(File file) {
+    final String name = file.getName();
+    return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+  }
+
+  private Segment newSegment() throws IOException {
+    final File file = new File(directory, String.format("%s%019d%s", PREFIX, nextSequence++, SUFFIX));
+    final Segment segment = openSegment(file);
+    segments.add(segment);
+    return segment;
+  }
+
+  private Segment openSegment(File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      final FileChannel channel = raf.getChannel();
+      // a segment written with a larger segment size is mapped whole
+      final long size = Math.max(segmentSize, raf.length());
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      return new Segment(file, channel, buffer);
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private static class Segment {
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    // intents in this segment without a completion, guarded by the journal
+    private int open;
+    // end of the last record appended, guarded by the journal
+    private int written;
+    // end of the bytes known to be durable, only touched by the flusher and close
+    private int forced;
+    // set while the flusher is forcing this segment, guarded by the journal
+    private boolean flushing;
+    // the mapping has been unmapped and must not be touched, guarded by the journal
+    private boolean released;
+
+    private Segment(File file, FileChannel channel, MappedByteBuffer buffer) {
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of latencies in microseconds with about 1.5% precision.
+ *
+ * Values below 64 get a bucket each, above that every power of two is split
+ * into 64 buckets, so the bucket width grows with the value and the whole range
+ * of a long fits in a few thousand counters.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BITS = 6;
+  private static final int SUB = 1 << SUB_BITS;
+  private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB + SUB;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long duration, TimeUnit unit) {
+    final long micros = Math.max(0, unit.toMicros(duration));
+    counts.incrementAndGet(index(micros));
+    total.incrementAndGet();
+    long current = max.get();
+    while (micros > current && !max.compareAndSet(current, micros)) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return total.get();
+  }
+
+  public long getMaxMicros() {
+    return max.get();
+  }
+
+  /**
+   * The latency at or below which {@code percentile} percent of values fall,
+   * reported as the upper edge of its bucket
+   */
+  public long getPercentileMicros(double percentile) {
+    final long count = total.get();
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      final long n = other.counts.get(i);
+      if (n != 0) {
+        counts.addAndGet(i, n);
+      }
+    }
+    total.addAndGet(other.total.get());
+    long current = max.get();
+    final long otherMax = other.max.get();
+    while (otherMax > current && !max.compareAndSet(current, otherMax)) {
+      current = max.get();
+    }
+  }
+
+  static int index(long value) {
+    if (value < SUB) {
+      return (int) value;
+    }
+    final int msb = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = msb - SUB_BITS;
+    return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB) {
+      return index;
+    }
+    final int shift = index / SUB - 1;
+    final long top = index % SUB + SUB;
+    return ((top + 1) << shift) - 1;
+  }
+
+}
@@ -0,0 +1,227 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.loadtest;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.robotninjas.util.command.AsyncCommand;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Drives a command at a fixed arrival rate regardless of how fast it responds.
+ *
+ * Requests are sent on a schedule, request {@code n} is due at
+ * {@code start + n / rate}, and a slow response never delays the next send.
+ * Latency is measured from when a request was due rather than when it was
+ * actually sent, so if the sender itself falls behind, because
+ * {@link AsyncCommand#execute()} blocked or the JVM paused, that delay is charged
+ * to the requests that waited instead of being silently omitted. Commands should
+ * hand their work to an executor, a command that runs on the calling thread turns
+ * the generator back into a closed loop.
+ */
+public class LoadGenerator {
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final double rate;
+  private final long durationNanos;
+  private final long intervalNanos;
+  private final long drainNanos;
+
+  private LoadGenerator(Builder builder) {
+    this.rate = builder.rate;
+    this.durationNanos = builder.durationNanos;
+    this.intervalNanos = builder.intervalNanos;
+    this.drainNanos = builder.drainNanos;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public LoadReport run(AsyncCommand<?> command) {
+    checkNotNull(command);
+    final Run run = new Run();
+    final double period = 1e9 / rate;
+    final long start = System.nanoTime();
+    final long end = start + durationNanos;
+    run.roll(start, start);
+
+    for (long n = 0; ; n++) {
+      final long due = start + (long) (n * period);
+      if (due >= end) {
+        break;
+      }
+      parkUntil(due);
+      run.maybeRoll(start);
+      run.send(command, due);
+    }
+
+    final long deadline = System.nanoTime() + drainNanos;
+    while (run.outstanding.get() > 0 && System.nanoTime() < deadline) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      run.maybeRoll(start);
+    }
+    final long finished = System.nanoTime();
+    run.roll(start, finished);
+
+    return new LoadReport(rate, run.sent.get(), run.succeeded.get(), run.failed.get(), run.outstanding.get(),
+      TimeUnit.NANOSECONDS.toMillis(finished - start), run.overall, run.intervals);
+  }
+
+  private static void parkUntil(long due) {
+    long remaining;
+    while ((remaining = due - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+  /**
+   * Counters for one interval, completions record into whichever is current
+   */
+  private static final class Window {
+
+    private final long startNanos;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private Window(long startNanos) {
+      this.startNanos = startNanos;
+    }
+  }
+
+  private final class Run {
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final AtomicReference<Window> window = new AtomicReference<Window>();
+    private final List<LoadReport.Interval> intervals = Lists.newArrayList();
+
+    private void send(AsyncCommand<?> command, final long due) {
+      sent.incrementAndGet();
+      outstanding.incrementAndGet();
+      final ListenableFuture<?> result;
+      try {
+        result = command.execute();
+      } catch (Exception e) {
+        completed(due, false);
+        return;
+      }
+      Futures.addCallback(result, new FutureCallback<Object>() {
+        @Override
+        public void onSuccess(Object value) {
+          completed(due, true);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          completed(due, false);
+        }
+      });
+    }
+
+    private void completed(long due, boolean success) {
+      final long latency = System.nanoTime() - due;
+      final Window current = window.get();
+      current.latency.record(latency, TimeUnit.NANOSECONDS);
+      current.completed.incrementAndGet();
+      overall.record(latency, TimeUnit.NANOSECONDS);
+      if (success) {
+        succeeded.incrementAndGet();
+      } else {
+        current.errors.incrementAndGet();
+        failed.incrementAndGet();
+      }
+      outstanding.decrementAndGet();
+    }
+
+    private void maybeRoll(long start) {
+      final long now = System.nanoTime();
+      if (now - window.get().startNanos >= intervalNanos) {
+        roll(start, now);
+      }
+    }
+
+    private void roll(long start, long now) {
+      final Window previous = window.getAndSet(new Window(now));
+      if (previous != null) {
+        intervals.add(new LoadReport.Interval(
+          TimeUnit.NANOSECONDS.toMillis(previous.startNanos - start),
+          previous.completed.get(), previous.errors.get(), THREADS.getThreadCount(), previous.latency));
+      }
+    }
+  }
+
+  public static class Builder {
+
+    private double rate = 100;
+    private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+    private long intervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private long drainNanos = TimeUnit.SECONDS.toNanos(5);
+
+    private Builder() {
+    }
+
+    /**
+     * Requests per second
+     */
+    public Builder withRate(double rate) {
+      checkArgument(rate > 0, "rate must be positive");
+      this.rate = rate;
+      return this;
+    }
+
+    public Builder withDuration(long duration, TimeUnit unit) {
+      this.durationNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    public Builder withReportInterval(long interval, TimeUnit unit) {
+      checkArgument(interval > 0, "interval must be positive");
+      this.intervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * How long to wait for outstanding requests once sending stops
+     */
+    public Builder withDrainTimeout(long timeout, TimeUnit unit) {
+      this.drainNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    public LoadGenerator build() {
+      return new LoadGenerator(this);
+    }
+  }
+
+}
@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.loadtest;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * What a {@link LoadGenerator} run observed, overall and per reporting interval.
+ * Latencies are in microseconds and measured from each request's intended send
+ * time.
+ */
+public class LoadReport {
+
+  private final double targetRate;
+  private final long sent;
+  private final long succeeded;
+  private final long failed;
+  private final long unfinished;
+  private final long elapsedMillis;
+  private final LatencyHistogram latency;
+  private final ImmutableList<Interval> intervals;
+
+  LoadReport(double targetRate, long sent, long succeeded, long failed, long unfinished,
+             long elapsedMillis, LatencyHistogram latency, List<Interval> intervals) {
+    this.targetRate = targetRate;
+    this.sent = sent;
+    this.succeeded = succeeded;
+    this.failed = failed;
+    this.unfinished = unfinished;
+    this.elapsedMillis = elapsedMillis;
+    this.latency = latency;
+    this.intervals = ImmutableList.copyOf(intervals);
+  }
+
+  public double getTargetRate() {
+    return targetRate;
+  }
+
+  public long getSent() {
+    return sent;
+  }
+
+  public long getSucceeded() {
+    return succeeded;
+  }
+
+  public long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Requests still outstanding when the drain timeout ran out
+   */
+  public long getUnfinished() {
+    return unfinished;
+  }
+
+  public double getThroughput() {
+    return elapsedMillis == 0 ? 0 : (succeeded + failed) * 1000.0 / elapsedMillis;
+  }
+
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  public List<Interval> getIntervals() {
+    return intervals;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder out = new StringBuilder();
+    out.append(String.format("%8s %8s %8s %10s %10s %10s %10s %10s %8s%n",
+      "t(ms)", "done", "errors", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)", "threads"));
+    for (Interval interval : intervals) {
+      out.append(interval).append(String.format("%n"));
+    }
+    out.append(String.format("target %.1f/s, sent %d, succeeded %d, failed %d, unfinished %d, throughput %.1f/s%n",
+      targetRate, sent, succeeded, failed, unfinished, getThroughput()));
+    out.append(String.format("p50 %dus, p90 %dus, p99 %dus, p99.9 %dus, max %dus",
+      latency.getPercentileMicros(50), latency.getPercentileMicros(90), latency.getPercentileMicros(99),
+      latency.getPercentileMicros(99.9), latency.getMaxMicros()));
+    return out.toString();
+  }
+
+  public static class Interval {
+
+    private final long offsetMillis;
+    private final long completed;
+    private final long errors;
+    private final int threads;
+    private final LatencyHistogram latency;
+
+    Interval(long offsetMillis, long completed, long errors, int threads, LatencyHistogram latency) {
+      this.offsetMillis = offsetMillis;
+      this.completed = completed;
+      this.errors = errors;
+      this.threads = threads;
+      this.latency = latency;
+    }
+
+    /**
+     * When the interval started, relative to the start of the run
+     */
+    public long getOffsetMillis() {
+      return offsetMillis;
+    }
+
+    public long getCompleted() {
+      return completed;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * Live threads in the JVM at the end of the interval
+     */
+    public int getThreads() {
+      return threads;
+    }
+
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%8d %8d %8d %10d %10d %10d %10d %10d %8d",
+        offsetMillis, completed, errors,
+        latency.getPercentileMicros(50), latency.getPercentileMicros(90),
+        latency.getPercentileMicros(99), latency.getPercentileMicros(99.9),
+        latency.getMaxMicros(), threads);
+    }
+  }
+
+}
@@ -0,0 +1,262 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.loadtest;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An in-process stand-in for a remote service.
+ *
+ * Each call waits for a latency drawn from a {@link Latency} distribution and
+ * then fails with the configured error rate. Error bursts raise the error rate
+ * for a stretch of time on a fixed period, stalls hold every call that arrives
+ * during the stall until the stall ends. Calls are available as blocking
+ * {@link Callable}s, which is what {@code CommandBuilder} runs, and as
+ * non-blocking futures completed from a timer.
+ */
+public class StubBackend {
+
+  private final Latency latency;
+  private final double errorRate;
+  private final long burstEveryNanos;
+  private final long burstLengthNanos;
+  private final double burstErrorRate;
+  private final long stallEveryNanos;
+  private final long stallLengthNanos;
+  private final ScheduledExecutorService timer;
+  private final long epoch = System.nanoTime();
+
+  private StubBackend(Builder builder) {
+    this.latency = builder.latency;
+    this.errorRate = builder.errorRate;
+    this.burstEveryNanos = builder.burstEveryNanos;
+    this.burstLengthNanos = builder.burstLengthNanos;
+    this.burstErrorRate = builder.burstErrorRate;
+    this.stallEveryNanos = builder.stallEveryNanos;
+    this.stallLengthNanos = builder.stallLengthNanos;
+    this.timer = builder.timer;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * A call that blocks the calling thread for the simulated latency
+   */
+  public <V> Callable<V> callable(final V value) {
+    return new Callable<V>() {
+      @Override
+      public V call() throws Exception {
+        final long now = System.nanoTime();
+        TimeUnit.NANOSECONDS.sleep(delay(now));
+        if (fails(now)) {
+          throw new BackendException("simulated failure");
+        }
+        return value;
+      }
+    };
+  }
+
+  /**
+   * A call that holds no thread, the future completes from the backend's timer
+   */
+  public <V> ListenableFuture<V> call(final V value) {
+    final long now = System.nanoTime();
+    final boolean fails = fails(now);
+    final SettableFuture<V> result = SettableFuture.create();
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (fails) {
+          result.setException(new BackendException("simulated failure"));
+        } else {
+          result.set(value);
+        }
+      }
+    }, delay(now), TimeUnit.NANOSECONDS);
+    return result;
+  }
+
+  public <I> AsyncFunction<I, I> echo() {
+    return new AsyncFunction<I, I>() {
+      @Override
+      public ListenableFuture<I> apply(I input) {
+        return call(input);
+      }
+    };
+  }
+
+  public void shutdown() {
+    timer.shutdown();
+  }
+
+  private long delay(long now) {
+    long delay = latency.sample(ThreadLocalRandom.current());
+    if (stallEveryNanos > 0) {
+      final long phase = (now - epoch) % stallEveryNanos;
+      if (phase < stallLengthNanos) {
+        delay += stallLengthNanos - phase;
+      }
+    }
+    return delay;
+  }
+
+  private boolean fails(long now) {
+    double rate = errorRate;
+    if (burstEveryNanos > 0 && (now - epoch) % burstEveryNanos < burstLengthNanos) {
+      rate = burstErrorRate;
+    }
+    return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+  }
+
+  public static class BackendException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public BackendException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A distribution of service times
+   */
+  public static abstract class Latency {
+
+    public abstract long sample(Random random);
+
+    public static Latency fixed(long duration, TimeUnit unit) {
+      final long nanos = unit.toNanos(duration);
+      return new Latency() {
+        @Override
+        public long sample(Random random) {
+          return nanos;
+        }
+      };
+    }
+
+    public static Latency uniform(long min, long max, TimeUnit unit) {
+      checkArgument(max >= min, "max must not be less than min");
+      final long low = unit.toNanos(min);
+      final long range = unit.toNanos(max) - low;
+      return new Latency() {
+        @Override
+        public long sample(Random random) {
+          return low + (long) (random.nextDouble() * range);
+        }
+      };
+    }
+
+    public static Latency exponential(long mean, TimeUnit unit) {
+      final double nanos = unit.toNanos(mean);
+      return new Latency() {
+        @Override
+        public long sample(Random random) {
+          return (long) (-nanos * Math.log(1 - random.nextDouble()));
+        }
+      };
+    }
+
+    /**
+     * Long tailed, {@code sigma} around 0.5 to 1 looks like most real services
+     */
+    public static Latency logNormal(long median, TimeUnit unit, final double sigma) {
+      final double mu = Math.log(unit.toNanos(median));
+      return new Latency() {
+        @Override
+        public long sample(Random random) {
+          return (long) Math.exp(mu + sigma * random.nextGaussian());
+        }
+      };
+    }
+  }
+
+  public static class Builder {
+
+    private Latency latency = Latency.fixed(1, TimeUnit.MILLISECONDS);
+    private double errorRate;
+    private long burstEveryNanos;
+    private long burstLengthNanos;
+    private double burstErrorRate;
+    private long stallEveryNanos;
+    private long stallLengthNanos;
+    private ScheduledExecutorService timer;
+
+    private Builder() {
+    }
+
+    public Builder withLatency(Latency latency) {
+      this.latency = checkNotNull(latency);
+      return this;
+    }
+
+    public Builder withErrorRate(double errorRate) {
+      checkArgument(errorRate >= 0 && errorRate <= 1, "error rate must be between 0 and 1");
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /**
+     * For {@code length} out of every {@code every}, fail calls at {@code rate}
+     */
+    public Builder withErrorBursts(long every, long length, TimeUnit unit, double rate) {
+      checkArgument(length <= every, "a burst cannot be longer than its period");
+      checkArgument(rate >= 0 && rate <= 1, "error rate must be between 0 and 1");
+      this.burstEveryNanos = unit.toNanos(every);
+      this.burstLengthNanos = unit.toNanos(length);
+      this.burstErrorRate = rate;
+      return this;
+    }
+
+    /**
+     * For {@code length} out of every {@code every}, hold calls until the stall ends
+     */
+    public Builder withStalls(long every, long length, TimeUnit unit) {
+      checkArgument(length <= every, "a stall cannot be longer than its period");
+      this.stallEveryNanos = unit.toNanos(every);
+      this.stallLengthNanos = unit.toNanos(length);
+      return this;
+    }
+
+    public Builder withTimer(ScheduledExecutorService timer) {
+      this.timer = checkNotNull(timer);
+      return this;
+    }
+
+    public StubBackend build() {
+      if (timer == null) {
+        timer = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("stub-backend-%d").build());
+      }
+      return new StubBackend(this);
+    }
+  }
+
+}
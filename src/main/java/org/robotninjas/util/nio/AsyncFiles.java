@@ -0,0 +1,377 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.nio;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Ready made file stages for compositions.
+ *
+ * {@link #read()}, {@link #write(File)} and {@link #copy(File)} use
+ * {@link AsynchronousFileChannel} and hold no thread while waiting on the disk,
+ * the copy moves data through a pooled direct buffer. {@link #copy(File, Executor)}
+ * and {@link #merge(File, Executor)} are zero-copy, they use
+ * {@link FileChannel#transferTo} which lets the kernel move the bytes but blocks
+ * while it does, so they run on the executor given to them.
+ */
+public class AsyncFiles {
+
+  private static final DirectBufferPool POOL = new DirectBufferPool();
+
+  private AsyncFiles() {
+  }
+
+  /**
+   * Read a whole file into a heap buffer ready to be read from
+   */
+  public static AsyncFunction<File, ByteBuffer> read() {
+    return new AsyncFunction<File, ByteBuffer>() {
+      @Override
+      public ListenableFuture<ByteBuffer> apply(File input) throws Exception {
+        final AsynchronousFileChannel channel = AsynchronousFileChannel.open(input.toPath(), READ);
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+          channel.close();
+          throw new IOException(input + " is too large to read into a buffer");
+        }
+        return new Read(channel, ByteBuffer.allocate((int) size)).start();
+      }
+    };
+  }
+
+  /**
+   * Write the remaining bytes of a buffer to {@code target}, replacing its contents
+   */
+  public static AsyncFunction<ByteBuffer, File> write(final File target) {
+    checkNotNull(target);
+    return new AsyncFunction<ByteBuffer, File>() {
+      @Override
+      public ListenableFuture<File> apply(ByteBuffer input) throws Exception {
+        final AsynchronousFileChannel channel =
+          AsynchronousFileChannel.open(target.toPath(), WRITE, CREATE, TRUNCATE_EXISTING);
+        return new Write(channel, input.duplicate(), target).start();
+      }
+    };
+  }
+
+  public static AsyncFunction<File, File> copy(File target) {
+    return copy(target, POOL);
+  }
+
+  /**
+   * Copy a file to {@code target} through a buffer from {@code pool} without
+   * holding a thread
+   */
+  public static AsyncFunction<File, File> copy(final File target, final DirectBufferPool pool) {
+    checkNotNull(target);
+    checkNotNull(pool);
+    return new AsyncFunction<File, File>() {
+      @Override
+      public ListenableFuture<File> apply(File input) throws Exception {
+        final AsynchronousFileChannel source = AsynchronousFileChannel.open(input.toPath(), READ);
+        final AsynchronousFileChannel sink;
+        try {
+          sink = AsynchronousFileChannel.open(target.toPath(), WRITE, CREATE, TRUNCATE_EXISTING);
+        } catch (IOException e) {
+          source.close();
+          throw e;
+        }
+        return new Copy(source, sink, pool, target).start();
+      }
+    };
+  }
+
+  /**
+   * Copy a file to {@code target} with {@link FileChannel#transferTo}, on {@code executor}
+   */
+  public static AsyncFunction<File, File> copy(final File target, final Executor executor) {
+    checkNotNull(target);
+    checkNotNull(executor);
+    return new AsyncFunction<File, File>() {
+      @Override
+      public ListenableFuture<File> apply(final File input) {
+        return submit(new Callable<File>() {
+          @Override
+          public File call() throws Exception {
+            transfer(input, target);
+            return target;
+          }
+        }, executor);
+      }
+    };
+  }
+
+  /**
+   * Concatenate files, in order, into {@code target} with {@link FileChannel#transferTo},
+   * on {@code executor}
+   */
+  public static AsyncFunction<List<File>, File> merge(final File target, final Executor executor) {
+    checkNotNull(target);
+    checkNotNull(executor);
+    return new AsyncFunction<List<File>, File>() {
+      @Override
+      public ListenableFuture<File> apply(final List<File> input) {
+        return submit(new Callable<File>() {
+          @Override
+          public File call() throws Exception {
+            transfer(input, target);
+            return target;
+          }
+        }, executor);
+      }
+    };
+  }
+
+  private static void transfer(File source, File target) throws IOException {
+    final FileChannel in = FileChannel.open(source.toPath(), READ);
+    try {
+      final FileChannel out = FileChannel.open(target.toPath(), WRITE, CREATE, TRUNCATE_EXISTING);
+      try {
+        transfer(in, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void transfer(List<File> sources, File target) throws IOException {
+    final FileChannel out = FileChannel.open(target.toPath(), WRITE, CREATE, TRUNCATE_EXISTING);
+    try {
+      for (File source : sources) {
+        final FileChannel in = FileChannel.open(source.toPath(), READ);
+        try {
+          transfer(in, out);
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void transfer(FileChannel in, FileChannel out) throws IOException {
+    final long size = in.size();
+    long position = 0;
+    while (position < size) {
+      final long transferred = in.transferTo(position, size - position, out);
+      // transferTo returns 0 forever once position is past the end
+      if (transferred == 0 && position >= in.size()) {
+        throw new EOFException("Source truncated to " + in.size() + " bytes while copying " + size);
+      }
+      position += transferred;
+    }
+  }
+
+  private static <V> ListenableFuture<V> submit(Callable<V> callable, Executor executor) {
+    final ListenableFutureTask<V> task = ListenableFutureTask.create(callable);
+    executor.execute(task);
+    return task;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // nothing left to do with it
+    }
+  }
+
+  /**
+   * Closes its channels when the result completes, including when the result is
+   * cancelled, which fails any I/O still in flight
+   */
+  private static abstract class Transfer<V> {
+
+    final SettableFuture<V> result = SettableFuture.create();
+
+    Transfer(final Closeable... channels) {
+      result.addListener(new Runnable() {
+        @Override
+        public void run() {
+          for (Closeable channel : channels) {
+            closeQuietly(channel);
+          }
+        }
+      }, sameThreadExecutor());
+    }
+
+    abstract void next();
+
+    ListenableFuture<V> start() {
+      next();
+      return result;
+    }
+  }
+
+  private static final class Read extends Transfer<ByteBuffer> implements CompletionHandler<Integer, Void> {
+
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer buffer;
+
+    private Read(AsynchronousFileChannel channel, ByteBuffer buffer) {
+      super(channel);
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+
+    @Override
+    void next() {
+      if (!buffer.hasRemaining()) {
+        buffer.flip();
+        result.set(buffer);
+        return;
+      }
+      channel.read(buffer, buffer.position(), null, this);
+    }
+
+    @Override
+    public void completed(Integer read, Void attachment) {
+      if (read < 0) {
+        buffer.flip();
+        result.set(buffer);
+        return;
+      }
+      next();
+    }
+
+    @Override
+    public void failed(Throwable t, Void attachment) {
+      result.setException(t);
+    }
+  }
+
+  private static final class Write extends Transfer<File> implements CompletionHandler<Integer, Void> {
+
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer buffer;
+    private final File target;
+    private long position;
+
+    private Write(AsynchronousFileChannel channel, ByteBuffer buffer, File target) {
+      super(channel);
+      this.channel = channel;
+      this.buffer = buffer;
+      this.target = target;
+    }
+
+    @Override
+    void next() {
+      if (!buffer.hasRemaining()) {
+        result.set(target);
+        return;
+      }
+      channel.write(buffer, position, null, this);
+    }
+
+    @Override
+    public void completed(Integer written, Void attachment) {
+      position += written;
+      next();
+    }
+
+    @Override
+    public void failed(Throwable t, Void attachment) {
+      result.setException(t);
+    }
+  }
+
+  /**
+   * Alternates between filling the buffer from the source and draining it into
+   * the sink. The buffer goes back to the pool from the completion handler once
+   * no more I/O will be issued, never while an operation may still be using it.
+   */
+  private static final class Copy extends Transfer<File> implements CompletionHandler<Integer, Boolean> {
+
+    private final AsynchronousFileChannel source;
+    private final AsynchronousFileChannel sink;
+    private final DirectBufferPool pool;
+    private final ByteBuffer buffer;
+    private final File target;
+    private long readPosition;
+    private long writePosition;
+
+    private Copy(AsynchronousFileChannel source, AsynchronousFileChannel sink, DirectBufferPool pool, File target) {
+      super(source, sink);
+      this.source = source;
+      this.sink = sink;
+      this.pool = pool;
+      this.buffer = pool.acquire();
+      this.target = target;
+    }
+
+    @Override
+    void next() {
+      buffer.clear();
+      source.read(buffer, readPosition, Boolean.TRUE, this);
+    }
+
+    @Override
+    public void completed(Integer count, Boolean reading) {
+      if (result.isDone()) {
+        pool.release(buffer);
+        return;
+      }
+      if (reading) {
+        if (count < 0) {
+          pool.release(buffer);
+          result.set(target);
+          return;
+        }
+        readPosition += count;
+        buffer.flip();
+      } else {
+        writePosition += count;
+      }
+      if (buffer.hasRemaining()) {
+        sink.write(buffer, writePosition, Boolean.FALSE, this);
+      } else {
+        next();
+      }
+    }
+
+    @Override
+    public void failed(Throwable t, Boolean reading) {
+      pool.release(buffer);
+      result.setException(t);
+    }
+  }
+
+}
@@ -0,0 +1,475 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.pool;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.robotninjas.util.concurrent.RejectedException;
+import org.robotninjas.util.concurrent.TimedOutException;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * A pool of resources that hands out leases as futures.
+ *
+ * {@link #acquire()} never blocks. If an idle resource is available, or the pool
+ * may grow, the returned future completes as soon as the resource is ready.
+ * Otherwise the request waits in line, holding no thread, until a lease is
+ * released or its acquire timeout fires on the pool's timer, which fails it
+ * with a {@link TimedOutException}. Closing the pool fails waiting requests with
+ * a {@link RejectedException}. Idle resources are
+ * handed out most recently used first, evicted once idle for too long, and
+ * destroyed once past their maximum lifetime.
+ *
+ * @param <T>
+ *   The pooled resource
+ */
+public class AsyncPool<T> implements Closeable {
+
+  private static final Logger log = Logger.getLogger(AsyncPool.class.getName());
+
+  private final ResourceFactory<T> factory;
+  private final ScheduledExecutorService timer;
+  private final boolean ownsTimer;
+  private final int maxSize;
+  private final long maxIdleNanos;
+  private final long maxLifetimeNanos;
+  private final long acquireTimeoutNanos;
+  private final boolean validateOnAcquire;
+  private final ArrayDeque<Entry> idle = new ArrayDeque<Entry>();
+  private final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+  private final ScheduledFuture<?> evictor;
+  // idle, leased and being created, guarded by this
+  private int size;
+  private boolean closed;
+
+  private AsyncPool(Builder<T> builder) {
+    this.factory = builder.factory;
+    this.ownsTimer = builder.timer == null;
+    this.timer = ownsTimer
+      ? Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("async-pool-timer-%d").build())
+      : builder.timer;
+    this.maxSize = builder.maxSize;
+    this.maxIdleNanos = builder.maxIdleNanos;
+    this.maxLifetimeNanos = builder.maxLifetimeNanos;
+    this.acquireTimeoutNanos = builder.acquireTimeoutNanos;
+    this.validateOnAcquire = builder.validateOnAcquire;
+
+    final long period = evictionPeriod();
+    this.evictor = period == 0 ? null : timer.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evict();
+      }
+    }, period, period, TimeUnit.NANOSECONDS);
+  }
+
+  public static <Z> Builder<Z> builder(ResourceFactory<Z> factory) {
+    return new Builder<Z>(factory);
+  }
+
+  public ListenableFuture<Lease<T>> acquire() {
+    final Waiter waiter = new Waiter();
+    dispatch(waiter);
+    return waiter.future;
+  }
+
+  public synchronized int getSize() {
+    return size;
+  }
+
+  public synchronized int getIdle() {
+    return idle.size();
+  }
+
+  public synchronized int getWaiting() {
+    return waiters.size();
+  }
+
+  /**
+   * Destroy idle resources and fail waiting acquires, leased resources are
+   * destroyed when they are released
+   */
+  @Override
+  public void close() {
+    final List<Entry> destroyed;
+    final List<Waiter> failed;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      destroyed = Lists.newArrayList(idle);
+      size -= idle.size();
+      idle.clear();
+      failed = Lists.newArrayList(waiters);
+      waiters.clear();
+    }
+    if (evictor != null) {
+      evictor.cancel(false);
+    }
+    for (Entry entry : destroyed) {
+      destroy(entry);
+    }
+    for (Waiter waiter : failed) {
+      waiter.fail(RejectedException.instance());
+    }
+    if (ownsTimer) {
+      timer.shutdown();
+    }
+  }
+
+  private void dispatch(Waiter waiter) {
+    final List<Entry> expired = Lists.newArrayList();
+    Entry entry = null;
+    boolean create = false;
+    final boolean rejected;
+    synchronized (this) {
+      rejected = closed;
+      if (rejected) {
+        entry = null;
+      } else {
+        final long now = System.nanoTime();
+        while ((entry = idle.pollFirst()) != null && isExpired(entry, now)) {
+          expired.add(entry);
+          size--;
+        }
+        if (entry == null) {
+          if (size < maxSize) {
+            size++;
+            create = true;
+          } else {
+            enqueue(waiter);
+          }
+        }
+      }
+    }
+
+    // listeners on the acquire future must not run under the lock
+    if (rejected) {
+      waiter.fail(RejectedException.instance());
+      return;
+    }
+
+    for (Entry e : expired) {
+      destroy(e);
+    }
+
+    if (entry != null) {
+      deliver(entry, waiter, validateOnAcquire);
+    } else if (create) {
+      create(waiter);
+    }
+  }
+
+  private void enqueue(final Waiter waiter) {
+    waiters.addLast(waiter);
+    if (acquireTimeoutNanos > 0) {
+      waiter.timeout = timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (AsyncPool.this) {
+            waiters.remove(waiter);
+          }
+          waiter.fail(TimedOutException.instance());
+        }
+      }, acquireTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+    waiter.future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (waiter.future.isCancelled()) {
+          synchronized (AsyncPool.this) {
+            waiters.remove(waiter);
+          }
+          waiter.cancelTimeout();
+        }
+      }
+    }, sameThreadExecutor());
+  }
+
+  private void create(final Waiter waiter) {
+    final ListenableFuture<T> created;
+    try {
+      created = factory.create();
+    } catch (RuntimeException e) {
+      createFailed(waiter, e);
+      return;
+    }
+    Futures.addCallback(created, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T resource) {
+        deliver(new Entry(resource), waiter, false);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        createFailed(waiter, t);
+      }
+    });
+  }
+
+  private void createFailed(Waiter waiter, Throwable t) {
+    synchronized (this) {
+      size--;
+    }
+    waiter.fail(t);
+    capacityFreed();
+  }
+
+  private void deliver(Entry entry, Waiter waiter, boolean validate) {
+    if (validate && !isValid(entry)) {
+      discard(entry);
+      dispatch(waiter);
+      return;
+    }
+    waiter.cancelTimeout();
+    if (!waiter.future.set(new PooledLease(entry))) {
+      // the acquire timed out or was cancelled while this was on its way
+      checkIn(entry);
+    }
+  }
+
+  private void checkIn(Entry entry) {
+    final Waiter waiter;
+    synchronized (this) {
+      if (!closed && !isExpired(entry, System.nanoTime())) {
+        waiter = waiters.pollFirst();
+        if (waiter == null) {
+          entry.lastUsed = System.nanoTime();
+          idle.addFirst(entry);
+          return;
+        }
+      } else {
+        waiter = null;
+      }
+    }
+    if (waiter == null) {
+      discard(entry);
+    } else {
+      deliver(entry, waiter, validateOnAcquire);
+    }
+  }
+
+  private void discard(Entry entry) {
+    synchronized (this) {
+      size--;
+    }
+    destroy(entry);
+    capacityFreed();
+  }
+
+  /**
+   * Room was made in the pool, start creating a resource for the next waiter
+   */
+  private void capacityFreed() {
+    final Waiter waiter;
+    synchronized (this) {
+      if (closed || size >= maxSize) {
+        return;
+      }
+      waiter = waiters.pollFirst();
+      if (waiter == null) {
+        return;
+      }
+      size++;
+    }
+    create(waiter);
+  }
+
+  private void evict() {
+    final List<Entry> evicted = Lists.newArrayList();
+    synchronized (this) {
+      final long now = System.nanoTime();
+      final Iterator<Entry> itr = idle.iterator();
+      while (itr.hasNext()) {
+        final Entry entry = itr.next();
+        if (isExpired(entry, now) || (maxIdleNanos > 0 && now - entry.lastUsed >= maxIdleNanos)) {
+          itr.remove();
+          size--;
+          evicted.add(entry);
+        }
+      }
+    }
+    for (Entry entry : evicted) {
+      destroy(entry);
+    }
+  }
+
+  private boolean isExpired(Entry entry, long now) {
+    return maxLifetimeNanos > 0 && now - entry.created >= maxLifetimeNanos;
+  }
+
+  private boolean isValid(Entry entry) {
+    try {
+      return factory.validate(entry.resource);
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  private void destroy(Entry entry) {
+    try {
+      factory.destroy(entry.resource);
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Failed to destroy pooled resource", e);
+    }
+  }
+
+  private long evictionPeriod() {
+    long period = 0;
+    for (long limit : new long[]{maxIdleNanos, maxLifetimeNanos}) {
+      if (limit > 0) {
+        period = period == 0 ? limit : Math.min(period, limit);
+      }
+    }
+    return period == 0 ? 0 : Math.max(period / 2, TimeUnit.MILLISECONDS.toNanos(10));
+  }
+
+  private final class Entry {
+
+    private final T resource;
+    private final long created = System.nanoTime();
+    private long lastUsed = created;
+
+    private Entry(T resource) {
+      this.resource = resource;
+    }
+  }
+
+  private final class Waiter {
+
+    private final SettableFuture<Lease<T>> future = SettableFuture.create();
+    private volatile ScheduledFuture<?> timeout;
+
+    private void fail(Throwable t) {
+      cancelTimeout();
+      future.setException(t);
+    }
+
+    private void cancelTimeout() {
+      final ScheduledFuture<?> scheduled = timeout;
+      if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+    }
+  }
+
+  private final class PooledLease implements Lease<T> {
+
+    private final Entry entry;
+    private final AtomicBoolean returned = new AtomicBoolean();
+
+    private PooledLease(Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public T get() {
+      return entry.resource;
+    }
+
+    @Override
+    public void release() {
+      if (returned.compareAndSet(false, true)) {
+        checkIn(entry);
+      }
+    }
+
+    @Override
+    public void invalidate() {
+      if (returned.compareAndSet(false, true)) {
+        discard(entry);
+      }
+    }
+  }
+
+  public static class Builder<T> {
+
+    private final ResourceFactory<T> factory;
+    private ScheduledExecutorService timer;
+    private int maxSize = 8;
+    private long maxIdleNanos;
+    private long maxLifetimeNanos;
+    private long acquireTimeoutNanos;
+    private boolean validateOnAcquire;
+
+    private Builder(ResourceFactory<T> factory) {
+      this.factory = checkNotNull(factory);
+    }
+
+    public Builder<T> withMaxSize(int maxSize) {
+      checkArgument(maxSize > 0, "max size must be positive");
+      this.maxSize = maxSize;
+      return this;
+    }
+
+    public Builder<T> withMaxIdleTime(long duration, TimeUnit unit) {
+      this.maxIdleNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    public Builder<T> withMaxLifetime(long duration, TimeUnit unit) {
+      this.maxLifetimeNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    public Builder<T> withAcquireTimeout(long duration, TimeUnit unit) {
+      this.acquireTimeoutNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Validate idle resources before handing them out, invalid ones are destroyed
+     */
+    public Builder<T> withValidateOnAcquire(boolean validate) {
+      this.validateOnAcquire = validate;
+      return this;
+    }
+
+    /**
+     * The timer for acquire timeouts and eviction, the pool makes its own if none is given
+     */
+    public Builder<T> withTimer(ScheduledExecutorService timer) {
+      this.timer = checkNotNull(timer);
+      return this;
+    }
+
+    public AsyncPool<T> build() {
+      return new AsyncPool<T>(this);
+    }
+  }
+
+}
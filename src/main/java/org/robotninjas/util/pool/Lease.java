@@ -0,0 +1,39 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.pool;
+
+/**
+ * A resource checked out of an {@link AsyncPool}. Exactly one of {@link #release()}
+ * or {@link #invalidate()} takes effect, later calls are ignored.
+ *
+ * @param <T>
+ *   The pooled resource
+ */
+public interface Lease<T> {
+
+  T get();
+
+  /**
+   * Hand the resource back to the pool
+   */
+  void release();
+
+  /**
+   * Destroy the resource instead of handing it back, for resources found broken
+   */
+  void invalidate();
+
+}
@@ -0,0 +1,37 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.pool;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Creates, checks and disposes of the resources held by an {@link AsyncPool}
+ *
+ * @param <T>
+ *   The pooled resource
+ */
+public interface ResourceFactory<T> {
+
+  ListenableFuture<T> create();
+
+  /**
+   * Whether an idle resource is still fit to hand out
+   */
+  boolean validate(T resource);
+
+  void destroy(T resource);
+
+}
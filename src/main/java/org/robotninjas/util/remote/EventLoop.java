@@ -0,0 +1,166 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One selector and the thread that polls it. Channels are registered and
+ * touched only from the loop thread, other threads hand work to it with
+ * {@link #execute(Runnable)}.
+ */
+final class EventLoop implements Closeable {
+
+  private static final Logger log = Logger.getLogger(EventLoop.class.getName());
+
+  /**
+   * Attached to every registered key
+   */
+  interface Handler {
+
+    void ready(SelectionKey key) throws IOException;
+
+    /**
+     * The channel failed or the loop closed, {@code cause} is null for the latter
+     */
+    void closed(Throwable cause);
+  }
+
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private volatile boolean closed;
+
+  EventLoop(String name) throws IOException {
+    this.selector = Selector.open();
+    this.thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  void execute(Runnable task) {
+    tasks.add(task);
+    if (Thread.currentThread() != thread) {
+      selector.wakeup();
+    }
+  }
+
+  boolean inLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Register {@code channel}, must be called from the loop thread
+   */
+  SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+    channel.configureBlocking(false);
+    return channel.register(selector, ops, handler);
+  }
+
+  /**
+   * Close the key's channel and tell its handler, must be called from the loop thread
+   */
+  static void close(SelectionKey key, Throwable cause) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Error closing channel", e);
+    }
+    ((Handler) key.attachment()).closed(cause);
+  }
+
+  private void loop() {
+    while (!closed) {
+      try {
+        // tasks queued by the loop itself don't wake the selector
+        if (tasks.isEmpty()) {
+          selector.select();
+        } else {
+          selector.selectNow();
+        }
+      } catch (IOException e) {
+        log.log(Level.SEVERE, "Selector failed", e);
+        break;
+      } catch (ClosedSelectorException e) {
+        break;
+      }
+
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          log.log(Level.WARNING, "Event loop task failed", e);
+        }
+      }
+
+      final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+      while (selected.hasNext()) {
+        final SelectionKey key = selected.next();
+        selected.remove();
+        if (!key.isValid()) {
+          continue;
+        }
+        try {
+          ((Handler) key.attachment()).ready(key);
+        } catch (Exception e) {
+          close(key, e);
+        }
+      }
+    }
+
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid()) {
+        close(key, null);
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Error closing selector", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    selector.wakeup();
+    if (!inLoop()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
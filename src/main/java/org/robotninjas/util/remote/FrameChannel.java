@@ -0,0 +1,252 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A socket carrying length prefixed frames in both directions, shared by the
+ * worker and the client.
+ *
+ * Each frame is {@code [length:int][id:long][type:byte][payload]}, where the id
+ * pairs a response with its request so any number of requests can be in flight
+ * on one connection and answered in any order. Frames can be sent from any
+ * thread, they are queued and written by the loop, which batches everything
+ * queued since its last write into a single gathering write.
+ *
+ * Payloads are Java serialized. Decoding is bounded by {@link #filter} and, if
+ * no other filter is given, by the JVM-wide one set with {@code -Djdk.serialFilter}.
+ */
+abstract class FrameChannel implements EventLoop.Handler {
+
+  static final byte CALL = 1;
+  static final byte RESULT = 2;
+  static final byte FAILURE = 3;
+  static final byte CANCEL = 4;
+
+  // length, id, type
+  static final int HEADER = 13;
+  static final int MAX_FRAME = 64 * 1024 * 1024;
+
+  private static final int READ_BUFFER = 64 * 1024;
+  private static final int MAX_GATHER = 64;
+  private static final byte[] EMPTY = new byte[0];
+  private static final long MAX_DEPTH = 256;
+  private static final long MAX_REFERENCES = 1 << 20;
+
+  final EventLoop loop;
+  private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+  private final Runnable flush = new Runnable() {
+    @Override
+    public void run() {
+      flushScheduled.set(false);
+      try {
+        flush();
+      } catch (IOException e) {
+        EventLoop.close(key, e);
+      }
+    }
+  };
+  private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+  private volatile SelectionKey key;
+
+  FrameChannel(EventLoop loop) {
+    this.loop = loop;
+  }
+
+  /**
+   * Register with the loop, must be called from the loop thread
+   */
+  final void register(SocketChannel channel) throws IOException {
+    channel.socket().setTcpNoDelay(true);
+    key = loop.register(channel, SelectionKey.OP_READ, this);
+  }
+
+  /**
+   * Handle a frame, called on the loop thread so anything costly belongs on another thread
+   */
+  abstract void received(long id, byte type, byte[] payload);
+
+  final void send(long id, byte type) {
+    send(id, type, EMPTY);
+  }
+
+  final void send(long id, byte type, byte[] payload) {
+    final ByteBuffer frame = ByteBuffer.allocate(HEADER + payload.length);
+    frame.putInt(payload.length).putLong(id).put(type).put(payload).flip();
+    outbound.add(frame);
+    if (flushScheduled.compareAndSet(false, true)) {
+      loop.execute(flush);
+    }
+  }
+
+  /**
+   * Close the connection, can be called from any thread
+   */
+  final void close() {
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        final SelectionKey k = key;
+        if (k != null && k.isValid()) {
+          EventLoop.close(k, new EOFException("Connection closed"));
+        }
+      }
+    });
+  }
+
+  @Override
+  public final void ready(SelectionKey key) throws IOException {
+    if (key.isReadable()) {
+      read((SocketChannel) key.channel());
+    }
+    if (key.isValid() && key.isWritable()) {
+      flush();
+    }
+  }
+
+  private void read(SocketChannel channel) throws IOException {
+    int read;
+    while ((read = channel.read(in)) > 0) {
+      in.flip();
+      final int needed = parse();
+      in.compact();
+      if (needed > in.capacity()) {
+        final ByteBuffer larger = ByteBuffer.allocate(needed);
+        in.flip();
+        larger.put(in);
+        in = larger;
+      }
+    }
+    if (read < 0) {
+      throw new EOFException("Connection closed by peer");
+    }
+  }
+
+  /**
+   * Hand every complete frame in the buffer to {@link #received}, returns the
+   * size of the first incomplete frame, or zero if its header is incomplete
+   */
+  private int parse() throws IOException {
+    while (in.remaining() >= HEADER) {
+      final int length = in.getInt(in.position());
+      if (length < 0 || length > MAX_FRAME) {
+        throw new IOException("Bad frame length " + length);
+      }
+      if (in.remaining() < HEADER + length) {
+        return HEADER + length;
+      }
+      in.getInt();
+      final long id = in.getLong();
+      final byte type = in.get();
+      final byte[] payload = new byte[length];
+      in.get(payload);
+      received(id, type, payload);
+    }
+    return 0;
+  }
+
+  static byte[] encode(Object value) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  static Object decode(byte[] payload) throws IOException, ClassNotFoundException {
+    return decode(payload, filter(null));
+  }
+
+  static Object decode(byte[] payload, ObjectInputFilter filter) throws IOException, ClassNotFoundException {
+    final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+    in.setObjectInputFilter(filter);
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reject object graphs deeper, larger or with longer arrays than a frame could
+   * reasonably hold, then defer to {@code classes}, or to the JVM-wide filter if
+   * that is null
+   */
+  static ObjectInputFilter filter(final ObjectInputFilter classes) {
+    return new ObjectInputFilter() {
+      @Override
+      public Status checkInput(FilterInfo info) {
+        if (info.depth() > MAX_DEPTH || info.references() > MAX_REFERENCES || info.arrayLength() > MAX_FRAME) {
+          return Status.REJECTED;
+        }
+        final ObjectInputFilter delegate = classes == null ? ObjectInputFilter.Config.getSerialFilter() : classes;
+        return delegate == null ? Status.UNDECIDED : delegate.checkInput(info);
+      }
+    };
+  }
+
+  private void flush() throws IOException {
+    final SelectionKey k = key;
+    if (k == null || !k.isValid()) {
+      return;
+    }
+    final SocketChannel channel = (SocketChannel) k.channel();
+    while (true) {
+      int count = 0;
+      for (ByteBuffer frame : outbound) {
+        gather[count++] = frame;
+        if (count == MAX_GATHER) {
+          break;
+        }
+      }
+      if (count == 0) {
+        k.interestOps(SelectionKey.OP_READ);
+        return;
+      }
+      channel.write(gather, 0, count);
+      for (int i = 0; i < count; i++) {
+        if (gather[i].hasRemaining()) {
+          break;
+        }
+        outbound.poll();
+      }
+      final boolean blocked = gather[count - 1].hasRemaining();
+      for (int i = 0; i < count; i++) {
+        gather[i] = null;
+      }
+      if (blocked) {
+        k.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,30 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+
+/**
+ * A callable that can be shipped to a worker process, it is serialized with
+ * its captured state and run on the worker, so everything it references must
+ * be serializable and its class must be on the worker's classpath
+ *
+ * @param <V>
+ *   The result, which must be serializable as well
+ */
+public interface RemoteCallable<V> extends Callable<V>, Serializable {
+}
@@ -0,0 +1,31 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+/**
+ * Stands in for a failure thrown on a worker that could not be serialized,
+ * it carries the original's description and stack trace
+ */
+public class RemoteException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  public RemoteException(Throwable original) {
+    super(original.toString());
+    setStackTrace(original.getStackTrace());
+  }
+
+}
@@ -0,0 +1,403 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.robotninjas.util.command.AsyncCommand;
+import org.robotninjas.util.concurrent.RejectedException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * Runs {@link RemoteCallable}s on a set of {@link RemoteWorker}s and returns
+ * their results as {@link ListenableFuture}s.
+ *
+ * Every worker has one connection and every request on it is tagged with an
+ * id, so many requests share the connection and complete in whatever order
+ * the worker finishes them. Each request goes to the connected worker with the
+ * fewest requests in flight. A worker never has more than {@code maxInFlight}
+ * requests outstanding, once every worker is at its limit requests wait here
+ * and are sent as responses come back.
+ *
+ * Results are decoded and their futures completed on the executor given to the
+ * builder, which defaults to the connection's loop thread, so slow listeners
+ * should say where they run. Cancelling a future sends a cancel to the worker,
+ * which interrupts the request if it is still running. If a connection is lost
+ * its outstanding requests fail with an {@link IOException}, they are not
+ * retried elsewhere since a callable may have run partway.
+ */
+public class RemoteExecutor implements Closeable {
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+  private final AtomicLong ids = new AtomicLong();
+  private final List<Connection> connections = Lists.newArrayList();
+  private final Queue<Call<?>> pending = new ArrayDeque<Call<?>>();
+  private final EventLoop loop;
+  private final int maxInFlight;
+  private final Executor executor;
+  private boolean closed;
+
+  private RemoteExecutor(EventLoop loop, int maxInFlight, Executor executor) {
+    this.loop = loop;
+    this.maxInFlight = maxInFlight;
+    this.executor = executor;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public <V> ListenableFuture<V> submit(RemoteCallable<V> callable) {
+    checkNotNull(callable);
+    final byte[] payload;
+    try {
+      payload = FrameChannel.encode(callable);
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    final Call<V> call = new Call<V>(ids.incrementAndGet(), payload);
+    dispatch(call);
+    return call;
+  }
+
+  /**
+   * A command that submits {@code callable} each time it is executed
+   */
+  public <V> AsyncCommand<V> command(final RemoteCallable<V> callable) {
+    checkNotNull(callable);
+    return new AsyncCommand<V>() {
+      @Override
+      public ListenableFuture<V> execute() {
+        return submit(callable);
+      }
+    };
+  }
+
+  public synchronized int getWorkers() {
+    return connections.size();
+  }
+
+  public synchronized int getInFlight() {
+    int inFlight = 0;
+    for (Connection connection : connections) {
+      inFlight += connection.inFlight;
+    }
+    return inFlight;
+  }
+
+  public synchronized int getPending() {
+    return pending.size();
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    loop.close();
+  }
+
+  private void dispatch(Call<?> call) {
+    final Connection connection;
+    synchronized (this) {
+      if (closed) {
+        call.setException(RejectedException.instance());
+        return;
+      }
+      if (connections.isEmpty()) {
+        call.setException(new IOException("No workers are connected"));
+        return;
+      }
+      connection = leastLoaded();
+      if (connection == null) {
+        pending.add(call);
+        return;
+      }
+      connection.assign(call);
+    }
+    connection.send(call.id, FrameChannel.CALL, call.payload);
+  }
+
+  /**
+   * The connection with the fewest requests in flight, or null if all are full
+   */
+  private Connection leastLoaded() {
+    Connection least = null;
+    for (Connection connection : connections) {
+      if (connection.inFlight < maxInFlight && (least == null || connection.inFlight < least.inFlight)) {
+        least = connection;
+      }
+    }
+    return least;
+  }
+
+  /**
+   * A request on {@code connection} finished, hand its slot to a waiting request
+   */
+  private void released(Connection connection) {
+    final Connection next;
+    final Call<?> call;
+    synchronized (this) {
+      connection.inFlight--;
+      if (pending.isEmpty()) {
+        return;
+      }
+      next = leastLoaded();
+      if (next == null) {
+        return;
+      }
+      call = pending.poll();
+      next.assign(call);
+    }
+    next.send(call.id, FrameChannel.CALL, call.payload);
+  }
+
+  private void cancelled(Call<?> call) {
+    final Connection connection;
+    synchronized (this) {
+      if (pending.remove(call)) {
+        return;
+      }
+      connection = call.connection;
+    }
+    if (connection != null && connection.calls.remove(call.id) != null) {
+      connection.send(call.id, FrameChannel.CANCEL);
+      released(connection);
+    }
+  }
+
+  private void lost(Connection connection, Throwable cause) {
+    final List<Call<?>> orphaned = Lists.newArrayList();
+    synchronized (this) {
+      if (!connections.remove(connection)) {
+        return;
+      }
+      if (connections.isEmpty()) {
+        orphaned.addAll(pending);
+        pending.clear();
+      }
+    }
+    final IOException failure = new IOException("Lost connection to worker " + connection.address, cause);
+    for (Call<?> call : connection.calls.values()) {
+      call.setException(failure);
+    }
+    connection.calls.clear();
+    for (Call<?> call : orphaned) {
+      call.setException(failure);
+    }
+  }
+
+  private final class Call<V> extends AbstractFuture<V> {
+
+    private final long id;
+    private final byte[] payload;
+    private volatile Connection connection;
+
+    private Call(long id, byte[] payload) {
+      this.id = id;
+      this.payload = payload;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(byte type, byte[] response) {
+      try {
+        final Object value = FrameChannel.decode(response);
+        if (type == FrameChannel.RESULT) {
+          set((V) value);
+        } else {
+          setException((Throwable) value);
+        }
+      } catch (Throwable t) {
+        setException(t);
+      }
+    }
+
+    @Override
+    protected boolean setException(Throwable throwable) {
+      return super.setException(throwable);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (super.cancel(mayInterruptIfRunning)) {
+        cancelled(this);
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private final class Connection extends FrameChannel {
+
+    private final ConcurrentMap<Long, Call<?>> calls = Maps.newConcurrentMap();
+    private final InetSocketAddress address;
+    // guarded by the RemoteExecutor
+    private int inFlight;
+
+    private Connection(EventLoop loop, InetSocketAddress address) {
+      super(loop);
+      this.address = address;
+    }
+
+    private void assign(Call<?> call) {
+      inFlight++;
+      call.connection = this;
+      calls.put(call.id, call);
+    }
+
+    @Override
+    void received(long id, final byte type, final byte[] payload) {
+      final Call<?> call = calls.remove(id);
+      if (call == null) {
+        return;
+      }
+      released(this);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          call.complete(type, payload);
+        }
+      });
+    }
+
+    @Override
+    public void closed(Throwable cause) {
+      lost(this, cause);
+    }
+  }
+
+  public static class Builder {
+
+    private final List<InetSocketAddress> workers = Lists.newArrayList();
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private Executor executor = sameThreadExecutor();
+
+    private Builder() {
+    }
+
+    public Builder withWorker(InetSocketAddress address) {
+      workers.add(checkNotNull(address));
+      return this;
+    }
+
+    public Builder withWorkers(Iterable<InetSocketAddress> addresses) {
+      for (InetSocketAddress address : addresses) {
+        withWorker(address);
+      }
+      return this;
+    }
+
+    /**
+     * The most requests sent to one worker before it has answered any of them
+     */
+    public Builder withMaxInFlight(int maxInFlight) {
+      checkArgument(maxInFlight > 0, "max in flight must be positive");
+      this.maxInFlight = maxInFlight;
+      return this;
+    }
+
+    /**
+     * Where results are decoded and futures completed
+     */
+    public Builder withExecutor(Executor executor) {
+      this.executor = checkNotNull(executor);
+      return this;
+    }
+
+    /**
+     * Connect to every worker, fails if any of them cannot be reached
+     */
+    public RemoteExecutor build() throws IOException {
+      checkState(!workers.isEmpty(), "no workers");
+      final EventLoop loop = new EventLoop("remote-executor");
+      final RemoteExecutor remote = new RemoteExecutor(loop, maxInFlight, executor);
+      final List<SocketChannel> channels = Lists.newArrayList();
+      try {
+        for (InetSocketAddress address : workers) {
+          channels.add(SocketChannel.open(address));
+        }
+      } catch (IOException e) {
+        for (SocketChannel channel : channels) {
+          channel.close();
+        }
+        loop.close();
+        throw e;
+      }
+
+      final CountDownLatch registered = new CountDownLatch(1);
+      final IOException[] failure = new IOException[1];
+      loop.execute(new Runnable() {
+        @Override
+        public void run() {
+          int i = 0;
+          try {
+            for (; i < channels.size(); i++) {
+              final Connection connection = remote.new Connection(loop, workers.get(i));
+              connection.register(channels.get(i));
+              synchronized (remote) {
+                remote.connections.add(connection);
+              }
+            }
+          } catch (IOException e) {
+            failure[0] = e;
+            // registered channels are closed with the loop, the rest are not known to it
+            for (; i < channels.size(); i++) {
+              try {
+                channels.get(i).close();
+              } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+              }
+            }
+          } finally {
+            registered.countDown();
+          }
+        }
+      });
+      try {
+        registered.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure[0] = new IOException("Interrupted while connecting");
+      }
+      if (failure[0] != null) {
+        remote.close();
+        throw failure[0];
+      }
+      return remote;
+    }
+  }
+
+}
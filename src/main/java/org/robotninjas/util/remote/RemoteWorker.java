@@ -0,0 +1,241 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+import com.google.common.collect.Maps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs {@link RemoteCallable}s sent by a {@link RemoteExecutor}.
+ *
+ * One loop thread accepts connections and moves frames, callables are decoded,
+ * run and their results encoded on a fixed pool of threads. Requests on a
+ * connection run concurrently and are answered as they finish. A cancel frame
+ * interrupts the request if it is still running.
+ *
+ * Run {@link #main(String[])} to start a worker process, or use
+ * {@link WorkerProcess} to spawn one from the client's classpath.
+ *
+ * A worker runs whatever callable it is sent and there is no authentication, so
+ * anyone who can connect can run code in it. Workers listen on the loopback
+ * interface unless given another address, which should only be one reachable
+ * by trusted clients. Decoding is limited in size and depth, and the classes it
+ * accepts can be narrowed with an {@link ObjectInputFilter}, given to
+ * {@link #start(InetSocketAddress, int, ObjectInputFilter)} or set JVM-wide with
+ * {@code -Djdk.serialFilter}.
+ */
+public class RemoteWorker implements Closeable {
+
+  private static final Logger log = Logger.getLogger(RemoteWorker.class.getName());
+
+  public static final String LISTENING = "LISTENING ";
+
+  private final EventLoop loop;
+  private final ServerSocketChannel server;
+  private final ExecutorService executor;
+  private final ObjectInputFilter filter;
+
+  private RemoteWorker(EventLoop loop, ServerSocketChannel server, ExecutorService executor, ObjectInputFilter filter) {
+    this.loop = loop;
+    this.server = server;
+    this.executor = executor;
+    this.filter = filter;
+  }
+
+  /**
+   * Listen on {@code port} of the loopback interface, 0 picks a free port
+   */
+  public static RemoteWorker start(int port, int threads) throws IOException {
+    return start(new InetSocketAddress(InetAddress.getByName(null), port), threads);
+  }
+
+  public static RemoteWorker start(InetSocketAddress address, int threads) throws IOException {
+    return start(address, threads, null);
+  }
+
+  /**
+   * Listen on {@code address}, decoding callables through {@code filter} in
+   * place of the JVM-wide serialization filter
+   */
+  public static RemoteWorker start(InetSocketAddress address, int threads, ObjectInputFilter filter) throws IOException {
+    checkNotNull(address);
+    checkArgument(threads > 0, "threads must be positive");
+    final ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().setReuseAddress(true);
+    server.socket().bind(address);
+    final EventLoop loop = new EventLoop("remote-worker-" + server.socket().getLocalPort());
+    final RemoteWorker worker = new RemoteWorker(loop, server, Executors.newFixedThreadPool(threads), FrameChannel.filter(filter));
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          loop.register(server, SelectionKey.OP_ACCEPT, worker.new Acceptor());
+        } catch (IOException e) {
+          log.log(Level.SEVERE, "Could not accept connections", e);
+        }
+      }
+    });
+    return worker;
+  }
+
+  public InetSocketAddress getAddress() {
+    return (InetSocketAddress) server.socket().getLocalSocketAddress();
+  }
+
+  @Override
+  public void close() {
+    loop.close();
+    // the loop only closes the server if it got as far as registering it
+    try {
+      server.close();
+    } catch (IOException e) {
+      log.log(Level.FINE, "Error closing server", e);
+    }
+    executor.shutdownNow();
+  }
+
+  /**
+   * {@code RemoteWorker [port [threads]]}, listens on the loopback interface and
+   * prints {@code LISTENING <port>} once it is ready. The worker exits when its
+   * standard input is closed, so it does not outlive the process that spawned it.
+   */
+  public static void main(String[] args) throws IOException {
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+    final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    final RemoteWorker worker = start(port, threads);
+    System.out.println(LISTENING + worker.getAddress().getPort());
+    System.out.flush();
+    final InputStream stdin = System.in;
+    try {
+      while (stdin.read() >= 0) {
+      }
+    } finally {
+      worker.close();
+    }
+  }
+
+  private final class Acceptor implements EventLoop.Handler {
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      SocketChannel channel;
+      while ((channel = server.accept()) != null) {
+        new Connection(loop).register(channel);
+      }
+    }
+
+    @Override
+    public void closed(Throwable cause) {
+      if (cause != null) {
+        log.log(Level.SEVERE, "Stopped accepting connections", cause);
+      }
+    }
+  }
+
+  private final class Connection extends FrameChannel {
+
+    private final ConcurrentMap<Long, Future<?>> running = Maps.newConcurrentMap();
+
+    private Connection(EventLoop loop) {
+      super(loop);
+    }
+
+    @Override
+    void received(final long id, byte type, final byte[] payload) {
+      if (type == CALL) {
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+          @Override
+          public void run() {
+            invoke(id, payload);
+          }
+        }, null);
+        running.put(id, task);
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          running.remove(id);
+          reply(id, FAILURE, e);
+        }
+      } else if (type == CANCEL) {
+        final Future<?> future = running.remove(id);
+        if (future != null) {
+          future.cancel(true);
+        }
+      } else {
+        log.warning("Ignoring frame of type " + type);
+      }
+    }
+
+    private void invoke(long id, byte[] payload) {
+      Object result;
+      byte type = RESULT;
+      try {
+        result = ((RemoteCallable<?>) decode(payload, filter)).call();
+      } catch (Throwable t) {
+        result = t;
+        type = FAILURE;
+      }
+      if (running.remove(id) != null) {
+        reply(id, type, result);
+      }
+    }
+
+    private void reply(long id, byte type, Object result) {
+      byte[] encoded;
+      try {
+        encoded = encode(result);
+      } catch (IOException e) {
+        try {
+          encoded = encode(type == FAILURE ? new RemoteException((Throwable) result) : e);
+        } catch (IOException unexpected) {
+          log.log(Level.SEVERE, "Could not encode reply", unexpected);
+          return;
+        }
+        type = FAILURE;
+      }
+      send(id, type, encoded);
+    }
+
+    @Override
+    public void closed(Throwable cause) {
+      for (Future<?> future : running.values()) {
+        future.cancel(true);
+      }
+      running.clear();
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+import com.google.common.collect.Lists;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link RemoteWorker} running in a child JVM on this host, started with
+ * this JVM's classpath so it can load the same callables. The child listens
+ * on the loopback interface only, and exits when it is closed or when this JVM
+ * exits. Anything it prints after starting is copied to this JVM's output.
+ */
+public class WorkerProcess implements Closeable {
+
+  private final Process process;
+  private final InetSocketAddress address;
+
+  private WorkerProcess(Process process, InetSocketAddress address) {
+    this.process = process;
+    this.address = address;
+  }
+
+  public static WorkerProcess spawn(int threads, String... jvmArgs) throws IOException {
+    checkArgument(threads > 0, "threads must be positive");
+    final List<String> command = Lists.newArrayList();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.addAll(Arrays.asList(jvmArgs));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(RemoteWorker.class.getName());
+    command.add("0");
+    command.add(Integer.toString(threads));
+
+    final Process process = new ProcessBuilder(command)
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+    final BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+    final String line = out.readLine();
+    if (line == null || !line.startsWith(RemoteWorker.LISTENING)) {
+      process.destroy();
+      throw new IOException("Worker failed to start: " + line);
+    }
+    final int port = Integer.parseInt(line.substring(RemoteWorker.LISTENING.length()).trim());
+    // keep reading, a child blocked on a full stdout pipe stops answering
+    final Thread drain = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          String output;
+          while ((output = out.readLine()) != null) {
+            System.out.println(output);
+          }
+        } catch (IOException e) {
+          // the child exited
+        }
+      }
+    }, "remote-worker-output-" + port);
+    drain.setDaemon(true);
+    drain.start();
+    return new WorkerProcess(process, new InetSocketAddress(InetAddress.getByName(null), port));
+  }
+
+  public static List<WorkerProcess> spawn(int count, int threads, String... jvmArgs) throws IOException {
+    final List<WorkerProcess> workers = Lists.newArrayList();
+    try {
+      for (int i = 0; i < count; i++) {
+        workers.add(spawn(threads, jvmArgs));
+      }
+    } catch (IOException e) {
+      for (WorkerProcess worker : workers) {
+        worker.close();
+      }
+      throw e;
+    }
+    return workers;
+  }
+
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * Close the worker's standard input so it shuts down, and kill it if it has
+   * not exited within a few seconds
+   */
+  @Override
+  public void close() {
+    try {
+      process.getOutputStream().close();
+      if (!process.waitFor(5, TimeUnit.SECONDS)) {
+        process.destroy();
+      }
+    } catch (IOException e) {
+      process.destroy();
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
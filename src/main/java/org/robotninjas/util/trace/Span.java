@@ -0,0 +1,40 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.trace;
+
+import javax.annotation.Nullable;
+
+/**
+ * An interval being recorded by a {@link Tracer}, ended exactly once
+ */
+public abstract class Span {
+
+  /**
+   * Returned by every hook when nothing is recording, ending it does nothing
+   */
+  public static final Span NOOP = new Span() {
+    @Override
+    public void end(@Nullable Throwable failure) {
+    }
+  };
+
+  /**
+   * @param failure
+   *   Why the interval ended unsuccessfully, or null if it succeeded
+   */
+  public abstract void end(@Nullable Throwable failure);
+
+}
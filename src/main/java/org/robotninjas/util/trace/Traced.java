@@ -0,0 +1,145 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.trace;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Wrappers that report to the installed {@link Tracer}
+ */
+public final class Traced {
+
+  private Traced() {
+  }
+
+  /**
+   * End {@code span} when {@code future} completes
+   */
+  public static <V> ListenableFuture<V> end(final Span span, ListenableFuture<V> future) {
+    if (span != Span.NOOP) {
+      Futures.addCallback(future, new FutureCallback<V>() {
+        @Override
+        public void onSuccess(V result) {
+          span.end(null);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          span.end(t);
+        }
+      });
+    }
+    return future;
+  }
+
+  public static <I, O> AsyncFunction<I, O> stage(final AsyncFunction<I, O> func) {
+    final String name = func.getClass().getName();
+    return new AsyncFunction<I, O>() {
+      @Override
+      public ListenableFuture<O> apply(I input) throws Exception {
+        final Span span = Tracer.get().stage(name);
+        if (span == Span.NOOP) {
+          return func.apply(input);
+        }
+        try {
+          return end(span, func.apply(input));
+        } catch (Exception e) {
+          span.end(e);
+          throw e;
+        }
+      }
+    };
+  }
+
+  public static <I, O> Function<I, O> stage(final Function<I, O> func) {
+    final String name = func.getClass().getName();
+    return new Function<I, O>() {
+      @Override
+      public O apply(I input) {
+        final Span span = Tracer.get().stage(name);
+        if (span == Span.NOOP) {
+          return func.apply(input);
+        }
+        try {
+          final O output = func.apply(input);
+          span.end(null);
+          return output;
+        } catch (RuntimeException e) {
+          span.end(e);
+          throw e;
+        }
+      }
+    };
+  }
+
+  /**
+   * Report every call of {@code callable} as one attempt of command {@code name}
+   */
+  public static <V> Callable<V> attempts(final String name, final Callable<V> callable) {
+    return new Callable<V>() {
+
+      private int attempt;
+
+      @Override
+      public V call() throws Exception {
+        final Span span = Tracer.get().attempt(name, ++attempt);
+        try {
+          final V result = callable.call();
+          span.end(null);
+          return result;
+        } catch (Exception e) {
+          span.end(e);
+          throw e;
+        }
+      }
+    };
+  }
+
+  /**
+   * Report the time between this call and {@code callable} starting as queue wait
+   */
+  public static <V> Callable<V> queued(final String name, final Callable<V> callable) {
+    final Span span = Tracer.get().queueWait(name);
+    if (span == Span.NOOP) {
+      return callable;
+    }
+    return new Callable<V>() {
+      @Override
+      public V call() throws Exception {
+        span.end(null);
+        return callable.call();
+      }
+    };
+  }
+
+  public static <V> FutureFallback<V> fallback(final String name, final FutureFallback<V> fallback) {
+    return new FutureFallback<V>() {
+      @Override
+      public ListenableFuture<V> create(Throwable t) throws Exception {
+        Tracer.get().fallback(name, t);
+        return fallback.create(t);
+      }
+    };
+  }
+
+}
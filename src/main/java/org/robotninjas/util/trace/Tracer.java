@@ -0,0 +1,92 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.trace;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Receives the library's instrumentation.
+ *
+ * Commands and compositions call these hooks as they run. The installed
+ * tracer does nothing by default, every hook returns {@link Span#NOOP} and
+ * callers skip any further bookkeeping when they get it back, so an idle
+ * tracer costs a volatile read and a virtual call per hook. Override the hooks
+ * you care about and {@link #install(Tracer)} the result, the flight recorder
+ * integration in {@code org.robotninjas.util.jfr} is one such tracer.
+ */
+public abstract class Tracer {
+
+  private static final Tracer NOOP = new Tracer() {
+  };
+
+  private static volatile Tracer current = NOOP;
+
+  public static Tracer get() {
+    return current;
+  }
+
+  public static void install(Tracer tracer) {
+    current = checkNotNull(tracer);
+  }
+
+  public static void uninstall() {
+    current = NOOP;
+  }
+
+  /**
+   * A command is executed, ends when its future completes
+   */
+  public Span command(String name) {
+    return Span.NOOP;
+  }
+
+  /**
+   * A command's task is handed to its executor, ends when the task starts running
+   */
+  public Span queueWait(String name) {
+    return Span.NOOP;
+  }
+
+  /**
+   * A command's callable is invoked, {@code attempt} counts from one and is
+   * greater than one when a retryer is trying again
+   */
+  public Span attempt(String name, int attempt) {
+    return Span.NOOP;
+  }
+
+  /**
+   * A command failed with {@code cause} and its fallback is invoked
+   */
+  public void fallback(String name, Throwable cause) {
+  }
+
+  /**
+   * A composition stage's function is invoked, ends when its output completes
+   */
+  public Span stage(String name) {
+    return Span.NOOP;
+  }
+
+  /**
+   * A stage applies {@code branches} functions to one input, ends when the
+   * combined result completes
+   */
+  public Span fanOut(String kind, int branches) {
+    return Span.NOOP;
+  }
+
+}
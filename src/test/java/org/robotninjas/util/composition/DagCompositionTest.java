@@ -0,0 +1,146 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.composition;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Test;
+import org.robotninjas.util.concurrent.FluentFuture;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DagCompositionTest {
+
+  @Test
+  public void sharedNodeRunsOncePerInvocation() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    final DagComposition.Builder<Integer> builder = DagComposition.builder();
+    final DagComposition.Node<Integer> shared = builder.mapNode(counting(calls), builder.input());
+    final DagComposition.Node<Integer> left = builder.mapNode(plus(1), shared);
+    final DagComposition.Node<Integer> right = builder.mapNode(plus(2), shared);
+    final AsyncFunction<Integer, Integer> composed = builder.build(builder.node(sum(), left, right)).buildAsyncFunction();
+
+    assertEquals(Integer.valueOf(13), composed.apply(5).get());
+    assertEquals(1, calls.get());
+    assertEquals(Integer.valueOf(23), composed.apply(10).get());
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void independentBranchesRunInParallel() throws Exception {
+    final SettableFuture<Integer> leftResult = SettableFuture.create();
+    final SettableFuture<Integer> rightResult = SettableFuture.create();
+    final AtomicInteger started = new AtomicInteger();
+    final DagComposition.Builder<Integer> builder = DagComposition.builder();
+    final DagComposition.Node<Integer> left = builder.node(pending(leftResult, started), builder.input());
+    final DagComposition.Node<Integer> right = builder.node(pending(rightResult, started), builder.input());
+    final ListenableFuture<Integer> result = builder.build(builder.node(sum(), left, right)).buildAsyncFunction().apply(0);
+
+    // neither branch waits for the other to finish before it starts
+    assertEquals(2, started.get());
+    assertFalse(result.isDone());
+
+    rightResult.set(2);
+    assertFalse(result.isDone());
+    leftResult.set(1);
+    assertEquals(Integer.valueOf(3), result.get());
+  }
+
+  @Test
+  public void sameFunctionOverSameInputsIsOneNode() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    final Function<Integer, Integer> f = counting(calls);
+    final DagComposition.Builder<Integer> builder = DagComposition.builder();
+    final DagComposition.Node<Integer> first = builder.mapNode(f, builder.input());
+    final DagComposition.Node<Integer> second = builder.mapNode(f, builder.input());
+    assertSame(first, second);
+
+    final DagComposition<Integer, Integer> dag = builder.build(builder.node(sum(), first, second));
+    assertEquals(3, dag.size());
+    assertEquals(Integer.valueOf(8), dag.buildAsyncFunction().apply(4).get());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void unusedNodesAreLeftOut() throws Exception {
+    final AtomicInteger unused = new AtomicInteger();
+    final DagComposition.Builder<Integer> builder = DagComposition.builder();
+    builder.mapNode(counting(unused), builder.input());
+    final DagComposition.Node<Integer> output = builder.mapNode(plus(1), builder.input());
+    final DagComposition<Integer, Integer> dag = builder.build(output);
+
+    assertEquals(2, dag.size());
+    assertEquals(Integer.valueOf(2), dag.buildAsyncFunction().apply(1).get());
+    assertEquals(0, unused.get());
+  }
+
+  @Test
+  public void nodesOnDifferentInputsAreDistinct() throws Exception {
+    final Function<Integer, Integer> f = plus(1);
+    final DagComposition.Builder<Integer> builder = DagComposition.builder();
+    final DagComposition.Node<Integer> first = builder.mapNode(f, builder.input());
+    final DagComposition.Node<Integer> second = builder.mapNode(f, first);
+    assertTrue(first != second);
+    assertEquals(Integer.valueOf(2), builder.build(second).buildAsyncFunction().apply(0).get());
+  }
+
+  private static Function<Integer, Integer> counting(final AtomicInteger calls) {
+    return new Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        calls.incrementAndGet();
+        return input;
+      }
+    };
+  }
+
+  private static Function<Integer, Integer> plus(final int n) {
+    return new Function<Integer, Integer>() {
+      @Override
+      public Integer apply(Integer input) {
+        return input + n;
+      }
+    };
+  }
+
+  private static AsyncFunction<Integer, Integer> pending(final ListenableFuture<Integer> result, final AtomicInteger started) {
+    return new AsyncFunction<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> apply(Integer input) {
+        started.incrementAndGet();
+        return result;
+      }
+    };
+  }
+
+  private static AsyncFunction<FluentFuture.Zip<Integer, Integer>, Integer> sum() {
+    return new AsyncFunction<FluentFuture.Zip<Integer, Integer>, Integer>() {
+      @Override
+      public ListenableFuture<Integer> apply(FluentFuture.Zip<Integer, Integer> input) {
+        return immediateFuture(input.getLeft() + input.getRight());
+      }
+    };
+  }
+
+}
@@ -0,0 +1,94 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.composition;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Test;
+import org.robotninjas.util.concurrent.AllFailedException;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RaceStageTest {
+
+  @Test
+  public void winnerCompletesTheStage() throws Exception {
+    final SettableFuture<String> slow = SettableFuture.create();
+    final AsyncFunction<String, String> composed = FunctionComposition.<String>builder()
+      .firstSuccessful(ImmutableList.of(returning(slow), returning(Futures.immediateFuture("fast"))))
+      .buildAsyncFunction();
+
+    assertEquals("fast", composed.apply("input").get());
+    assertTrue(slow.isCancelled());
+  }
+
+  @Test
+  public void stageFailsOnlyWhenEveryBranchFails() throws Exception {
+    final SettableFuture<String> last = SettableFuture.create();
+    final AsyncFunction<String, String> composed = FunctionComposition.<String>builder()
+      .firstSuccessful(ImmutableList.of(
+        returning(Futures.<String>immediateFailedFuture(new Exception("one"))),
+        returning(last)))
+      .buildAsyncFunction();
+
+    final ListenableFuture<String> result = composed.apply("input");
+    assertFalse(result.isDone());
+
+    last.setException(new Exception("two"));
+    try {
+      result.get();
+      fail("expected the stage to fail");
+    } catch (ExecutionException e) {
+      final List<Throwable> failures = ((AllFailedException) e.getCause()).getFailures();
+      assertEquals(2, failures.size());
+    }
+  }
+
+  @Test
+  public void firstCompletedStageTakesTheFirstOutcome() throws Exception {
+    final SettableFuture<String> slow = SettableFuture.create();
+    final AsyncFunction<String, String> composed = FunctionComposition.<String>builder()
+      .firstCompleted(ImmutableList.of(returning(slow), returning(Futures.<String>immediateFailedFuture(new IllegalStateException()))))
+      .buildAsyncFunction();
+
+    try {
+      composed.apply("input").get();
+      fail("expected the failure to win");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertTrue(slow.isCancelled());
+  }
+
+  private static AsyncFunction<String, String> returning(final ListenableFuture<String> future) {
+    return new AsyncFunction<String, String>() {
+      @Override
+      public ListenableFuture<String> apply(String input) {
+        return future;
+      }
+    };
+  }
+
+}
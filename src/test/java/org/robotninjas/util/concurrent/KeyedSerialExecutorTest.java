@@ -0,0 +1,327 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyedSerialExecutorTest {
+
+  private ExecutorService pool;
+
+  @After
+  public void shutdown() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void keepsPerKeyOrderUnderConcurrentProducers() throws Exception {
+    pool = Executors.newFixedThreadPool(4);
+    final KeyedSerialExecutor<String> keyed = new KeyedSerialExecutor<String>(pool, 8);
+    final int producers = 4;
+    final int tasks = 2000;
+    final List<int[]> ran = Lists.newArrayList();
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(producers * tasks);
+    final CountDownLatch start = new CountDownLatch(1);
+
+    final List<Thread> threads = Lists.newArrayList();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      final Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < tasks; i++) {
+            final int seq = i;
+            keyed.execute("key", new Runnable() {
+              @Override
+              public void run() {
+                if (running.incrementAndGet() != 1) {
+                  overlaps.incrementAndGet();
+                }
+                // unsynchronized on purpose, the key's tasks never overlap
+                ran.add(new int[]{producer, seq});
+                running.decrementAndGet();
+                done.countDown();
+              }
+            });
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, overlaps.get());
+    assertEquals(producers * tasks, ran.size());
+    final int[] last = new int[producers];
+    for (int[] entry : ran) {
+      assertEquals(last[entry[0]]++, entry[1]);
+    }
+  }
+
+  @Test
+  public void runsDifferentKeysInParallel() throws Exception {
+    pool = Executors.newFixedThreadPool(2);
+    final KeyedSerialExecutor<String> keyed = new KeyedSerialExecutor<String>(pool);
+    final CountDownLatch otherKeyRan = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+
+    keyed.execute("blocked", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (otherKeyRan.await(10, TimeUnit.SECONDS)) {
+            done.countDown();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    keyed.execute("free", new Runnable() {
+      @Override
+      public void run() {
+        otherKeyRan.countDown();
+      }
+    });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void handsTheThreadBackAfterMaxTasksPerRun() {
+    final ManualExecutor executor = new ManualExecutor();
+    final KeyedSerialExecutor<String> keyed = new KeyedSerialExecutor<String>(executor, 2);
+    final List<String> ran = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      keyed.execute("busy", recording(ran, "busy" + i));
+    }
+    keyed.execute("other", recording(ran, "other"));
+    assertEquals(2, executor.size());
+
+    executor.runNext();
+    assertEquals(Lists.newArrayList("busy0", "busy1"), ran);
+    // the busy key went to the back of the line
+    assertEquals(2, executor.size());
+
+    executor.runNext();
+    assertEquals("other", ran.get(2));
+
+    executor.runAll();
+    assertEquals(Lists.newArrayList("busy0", "busy1", "other", "busy2", "busy3", "busy4"), ran);
+  }
+
+  @Test
+  public void reclaimsKeysOnceDrained() {
+    final ManualExecutor executor = new ManualExecutor();
+    final KeyedSerialExecutor<Integer> keyed = new KeyedSerialExecutor<Integer>(executor);
+    final List<String> ran = Lists.newArrayList();
+    for (int key = 0; key < 3; key++) {
+      keyed.execute(key, recording(ran, "first" + key));
+    }
+    assertEquals(3, keyed.getActiveKeys());
+
+    executor.runAll();
+    assertEquals(0, keyed.getActiveKeys());
+
+    keyed.execute(0, recording(ran, "again"));
+    assertEquals(1, keyed.getActiveKeys());
+    executor.runAll();
+    assertEquals("again", ran.get(3));
+    assertEquals(0, keyed.getActiveKeys());
+  }
+
+  @Test
+  public void errorFromATaskStillDrainsTheRest() {
+    final ManualExecutor executor = new ManualExecutor();
+    final KeyedSerialExecutor<String> keyed = new KeyedSerialExecutor<String>(executor);
+    final AssertionError error = new AssertionError("boom");
+    final List<String> ran = Lists.newArrayList();
+    keyed.execute("key", new Runnable() {
+      @Override
+      public void run() {
+        throw error;
+      }
+    });
+    keyed.execute("key", recording(ran, "after"));
+
+    try {
+      executor.runNext();
+      fail("expected the error to escape the drain");
+    } catch (AssertionError e) {
+      assertSame(error, e);
+    }
+    assertEquals(1, executor.size());
+
+    executor.runAll();
+    assertEquals(Lists.newArrayList("after"), ran);
+    assertEquals(0, keyed.getActiveKeys());
+  }
+
+  @Test
+  public void rejectionIsThrownToTheSubmitter() {
+    final KeyedSerialExecutor<String> keyed = new KeyedSerialExecutor<String>(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    });
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        keyed.execute("key", recording(Lists.<String>newArrayList(), "never"));
+        fail("expected the rejection to reach the caller");
+      } catch (RejectedExecutionException expected) {
+        assertEquals(0, keyed.getActiveKeys());
+      }
+    }
+  }
+
+  @Test
+  public void rejectionCancelsTasksOtherProducersQueued() {
+    final ListenableFutureTask<String> queued = ListenableFutureTask.create(returning("queued"));
+    final ListenableFutureTask<String> submitted = ListenableFutureTask.create(returning("submitted"));
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicReference<KeyedSerialExecutor<String>> keyed = new AtomicReference<KeyedSerialExecutor<String>>();
+    keyed.set(new KeyedSerialExecutor<String>(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        if (calls.incrementAndGet() == 1) {
+          // another producer gets in behind the first task before the rejection
+          keyed.get().execute("key", queued);
+        }
+        throw new RejectedExecutionException();
+      }
+    }));
+
+    try {
+      keyed.get().execute("key", submitted);
+      fail("expected the rejection to reach the caller");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertTrue(queued.isCancelled());
+    assertFalse(submitted.isDone());
+    assertEquals(0, keyed.get().getActiveKeys());
+  }
+
+  @Test
+  public void errorWithRejectedRescheduleCancelsTheRest() {
+    final ManualExecutor executor = new ManualExecutor();
+    final KeyedSerialExecutor<String> keyed = new KeyedSerialExecutor<String>(executor);
+    final ListenableFutureTask<String> after = ListenableFutureTask.create(returning("after"));
+    keyed.execute("key", new Runnable() {
+      @Override
+      public void run() {
+        throw new AssertionError("boom");
+      }
+    });
+    keyed.execute("key", after);
+
+    executor.reject = true;
+    try {
+      executor.runNext();
+      fail("expected the error to escape the drain");
+    } catch (AssertionError expected) {
+    }
+    assertTrue(after.isCancelled());
+    assertEquals(0, keyed.getActiveKeys());
+  }
+
+  private static Runnable recording(final List<String> ran, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ran.add(name);
+      }
+    };
+  }
+
+  private static Callable<String> returning(final String value) {
+    return new Callable<String>() {
+      @Override
+      public String call() {
+        return value;
+      }
+    };
+  }
+
+  /**
+   * Queues drains so a test can run them one at a time
+   */
+  private static final class ManualExecutor implements Executor {
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+    private volatile boolean reject;
+
+    @Override
+    public void execute(Runnable command) {
+      if (reject) {
+        throw new RejectedExecutionException();
+      }
+      queue.add(command);
+    }
+
+    int size() {
+      return queue.size();
+    }
+
+    void runNext() {
+      queue.remove().run();
+    }
+
+    void runAll() {
+      while (!queue.isEmpty()) {
+        runNext();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,178 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import jsr166y.ForkJoinPool;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelMapTest {
+
+  private static final IllegalStateException FAILURE = new IllegalStateException("odd");
+
+  @Test
+  public void collectKeepsInputOrder() throws Exception {
+    final List<SettableFuture<Integer>> pending = Lists.newArrayList();
+    final ListenableFuture<ParallelMap.Results<Integer>> mapped = ParallelMap.mapAll(range(8),
+      new AsyncFunction<Integer, Integer>() {
+        @Override
+        public ListenableFuture<Integer> apply(Integer input) {
+          final SettableFuture<Integer> future = SettableFuture.create();
+          pending.add(future);
+          return future;
+        }
+      }, 8, 1, ParallelMap.FailureMode.COLLECT);
+
+    assertEquals(8, pending.size());
+    // finish in reverse, failing the odd items
+    for (int i = pending.size() - 1; i >= 0; i--) {
+      if (i % 2 == 0) {
+        pending.get(i).set(i * 10);
+      } else {
+        pending.get(i).setException(FAILURE);
+      }
+    }
+
+    final ParallelMap.Results<Integer> results = mapped.get();
+    assertEquals(4, results.getFailureCount());
+    for (int i = 0; i < 8; i++) {
+      if (i % 2 == 0) {
+        assertEquals(i * 10, results.getValues().get(i).intValue());
+        assertNull(results.getFailures().get(i));
+      } else {
+        assertNull(results.getValues().get(i));
+        assertSame(FAILURE, results.getFailures().get(i));
+      }
+    }
+  }
+
+  @Test
+  public void failFastStopsStartingItems() throws Exception {
+    final AtomicInteger started = new AtomicInteger();
+    final ListenableFuture<List<Integer>> mapped = ParallelMap.mapAll(range(100),
+      new AsyncFunction<Integer, Integer>() {
+        @Override
+        public ListenableFuture<Integer> apply(Integer input) {
+          started.incrementAndGet();
+          return input == 2 ? Futures.<Integer>immediateFailedFuture(FAILURE) : Futures.immediateFuture(input);
+        }
+      }, 1, 4);
+
+    try {
+      mapped.get();
+      fail("expected the map to fail");
+    } catch (ExecutionException e) {
+      assertSame(FAILURE, e.getCause());
+    }
+    assertEquals(3, started.get());
+  }
+
+  @Test
+  public void neverMoreThanParallelismInFlight() throws Exception {
+    final List<Integer> inputs = Lists.newArrayList();
+    final List<SettableFuture<Integer>> pending = Lists.newArrayList();
+    final ListenableFuture<List<Integer>> mapped = ParallelMap.mapAll(range(10),
+      new AsyncFunction<Integer, Integer>() {
+        @Override
+        public ListenableFuture<Integer> apply(Integer input) {
+          final SettableFuture<Integer> future = SettableFuture.create();
+          inputs.add(input);
+          pending.add(future);
+          return future;
+        }
+      }, 3, 2);
+
+    for (int done = 0; done < 10; done++) {
+      assertTrue(pending.size() - done <= 3);
+      pending.get(done).set(inputs.get(done));
+    }
+    assertEquals(range(10), mapped.get());
+  }
+
+  @Test
+  public void cancellingStopsWorkers() throws Exception {
+    final List<SettableFuture<Integer>> pending = Lists.newArrayList();
+    final ListenableFuture<List<Integer>> mapped = ParallelMap.mapAll(range(10),
+      new AsyncFunction<Integer, Integer>() {
+        @Override
+        public ListenableFuture<Integer> apply(Integer input) {
+          final SettableFuture<Integer> future = SettableFuture.create();
+          pending.add(future);
+          return future;
+        }
+      }, 2, 1);
+
+    mapped.cancel(false);
+    assertEquals(2, pending.size());
+    assertTrue(pending.get(0).isCancelled());
+    assertTrue(pending.get(1).isCancelled());
+  }
+
+  @Test
+  public void forkJoinKeepsInputOrder() throws Exception {
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      final ListenableFuture<ParallelMap.Results<Integer>> mapped = ParallelMap.mapAll(range(1000),
+        new Function<Integer, Integer>() {
+          @Override
+          public Integer apply(Integer input) {
+            if (input % 100 == 0) {
+              throw FAILURE;
+            }
+            return -input;
+          }
+        }, pool, 16, ParallelMap.FailureMode.COLLECT);
+
+      final ParallelMap.Results<Integer> results = mapped.get(10, TimeUnit.SECONDS);
+      assertFalse(results.isSuccessful());
+      assertEquals(10, results.getFailureCount());
+      for (int i = 0; i < 1000; i++) {
+        if (i % 100 == 0) {
+          assertSame(FAILURE, results.getFailures().get(i));
+        } else {
+          assertEquals(-i, results.getValues().get(i).intValue());
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static List<Integer> range(int size) {
+    return Lists.newArrayList(ContiguousSet.create(Range.closedOpen(0, size), DiscreteDomain.integers()));
+  }
+
+}
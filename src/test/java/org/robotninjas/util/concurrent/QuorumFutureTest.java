@@ -0,0 +1,140 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QuorumFutureTest {
+
+  private final List<SettableFuture<String>> branches = Lists.newArrayList();
+  private ScheduledExecutorService timer;
+
+  @Before
+  public void setUp() {
+    for (int i = 0; i < 5; i++) {
+      branches.add(SettableFuture.<String>create());
+    }
+    timer = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    timer.shutdownNow();
+  }
+
+  @Test
+  public void decidesAtRequiredSuccesses() throws Exception {
+    final ListenableFuture<List<String>> quorum = FluentFuture.quorum(3, branches);
+
+    branches.get(4).set("e");
+    branches.get(0).set("a");
+    assertFalse(quorum.isDone());
+    branches.get(2).set("c");
+
+    assertEquals(ImmutableList.of("e", "a", "c"), quorum.get());
+    assertTrue(branches.get(1).isCancelled());
+    assertTrue(branches.get(3).isCancelled());
+  }
+
+  @Test
+  public void failsOnceQuorumIsOutOfReach() throws Exception {
+    final ListenableFuture<List<String>> quorum = FluentFuture.quorum(3, branches);
+    final Exception first = new Exception("first");
+
+    branches.get(0).setException(first);
+    branches.get(1).setException(new Exception("second"));
+    assertFalse(quorum.isDone());
+    // five branches need three successes, the third failure leaves only two
+    branches.get(2).setException(new Exception("third"));
+
+    try {
+      quorum.get();
+      fail("expected the quorum to fail");
+    } catch (ExecutionException e) {
+      final QuorumFailedException failed = (QuorumFailedException) e.getCause();
+      assertEquals(3, failed.getRequired());
+      assertEquals(3, failed.getFailures().size());
+      assertSame(first, failed.getCause());
+    }
+    assertTrue(branches.get(3).isCancelled());
+    assertTrue(branches.get(4).isCancelled());
+  }
+
+  @Test
+  public void resolvesPartialResultsAtDeadline() throws Exception {
+    final Quorum quorum = Quorum.of(3).within(50, TimeUnit.MILLISECONDS, timer).allowPartial();
+    final ListenableFuture<List<String>> result =
+      FluentFuture.quorum(quorum, branches, Quorum.<String>responses());
+
+    branches.get(1).set("b");
+    assertEquals(ImmutableList.of("b"), result.get(5, TimeUnit.SECONDS));
+    assertTrue(branches.get(0).isCancelled());
+  }
+
+  @Test
+  public void failsAtDeadlineWithoutPartialResults() throws Exception {
+    final Quorum quorum = Quorum.of(3).within(50, TimeUnit.MILLISECONDS, timer);
+    final ListenableFuture<List<String>> result =
+      FluentFuture.quorum(quorum, branches, Quorum.<String>responses());
+
+    branches.get(1).set("b");
+    try {
+      result.get(5, TimeUnit.SECONDS);
+      fail("expected the deadline to pass");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof DeadlineExceededException);
+    }
+  }
+
+  @Test
+  public void nullResponsesCount() throws Exception {
+    final ListenableFuture<List<String>> quorum = FluentFuture.quorum(2, branches);
+
+    branches.get(0).set(null);
+    branches.get(3).set("d");
+
+    assertEquals(Arrays.asList(null, "d"), quorum.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void cancellingCancelsBranches() throws Exception {
+    final ListenableFuture<List<String>> quorum = FluentFuture.quorum(3, branches);
+    quorum.cancel(true);
+    for (SettableFuture<String> branch : branches) {
+      assertTrue(branch.isCancelled());
+    }
+  }
+
+}
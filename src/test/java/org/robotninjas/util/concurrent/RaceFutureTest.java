@@ -0,0 +1,112 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RaceFutureTest {
+
+  private final SettableFuture<String> first = SettableFuture.create();
+  private final SettableFuture<String> second = SettableFuture.create();
+  private final SettableFuture<String> third = SettableFuture.create();
+  private final List<SettableFuture<String>> branches = ImmutableList.of(first, second, third);
+
+  @Test
+  public void firstSuccessWinsAndLosersAreCancelled() throws Exception {
+    final ListenableFuture<String> race = FluentFuture.firstSuccessful(branches);
+
+    second.set("second");
+
+    assertEquals("second", race.get());
+    assertTrue(first.isCancelled());
+    assertTrue(third.isCancelled());
+  }
+
+  @Test
+  public void failuresAreSkippedWhileAnyBranchMaySucceed() throws Exception {
+    final ListenableFuture<String> race = FluentFuture.firstSuccessful(branches);
+
+    first.setException(new Exception("first"));
+    third.cancel(false);
+    assertFalse(race.isDone());
+
+    second.set("second");
+    assertEquals("second", race.get());
+  }
+
+  @Test
+  public void failsWithEveryFailureWhenAllBranchesFail() throws Exception {
+    final ListenableFuture<String> race = FluentFuture.firstSuccessful(branches);
+    final Exception a = new Exception("a");
+    final Exception c = new Exception("c");
+
+    third.setException(c);
+    first.setException(a);
+    assertFalse(race.isDone());
+    second.cancel(false);
+
+    try {
+      race.get();
+      fail("expected the race to fail");
+    } catch (ExecutionException e) {
+      final AllFailedException failed = (AllFailedException) e.getCause();
+      final List<Throwable> failures = failed.getFailures();
+      assertEquals(3, failures.size());
+      assertSame(a, failures.get(0));
+      assertTrue(failures.get(1) instanceof CancellationException);
+      assertSame(c, failures.get(2));
+    }
+  }
+
+  @Test
+  public void firstCompletedTakesAFailure() throws Exception {
+    final ListenableFuture<String> race = FluentFuture.firstCompleted(branches);
+    final Exception failure = new Exception("first");
+
+    first.setException(failure);
+    second.set("second");
+
+    try {
+      race.get();
+      fail("expected the first completion to win");
+    } catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+    assertTrue(third.isCancelled());
+  }
+
+  @Test
+  public void cancellingTheRaceCancelsEveryBranch() throws Exception {
+    FluentFuture.firstSuccessful(branches).cancel(true);
+    for (SettableFuture<String> branch : branches) {
+      assertTrue(branch.isCancelled());
+    }
+  }
+
+}
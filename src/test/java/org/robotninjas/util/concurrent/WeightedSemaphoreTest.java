@@ -0,0 +1,120 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.concurrent;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WeightedSemaphoreTest {
+
+  @Test
+  public void grantsInArrivalOrder() throws Exception {
+    final WeightedSemaphore semaphore = new WeightedSemaphore(10);
+    assertTrue(semaphore.tryAcquire(10));
+
+    final ListenableFuture<Void> large = semaphore.acquire(8);
+    final ListenableFuture<Void> small = semaphore.acquire(1);
+    assertFalse(semaphore.tryAcquire(1));
+
+    // room for the small one, but the large one is ahead of it
+    semaphore.release(5);
+    assertFalse(large.isDone());
+    assertFalse(small.isDone());
+
+    semaphore.release(5);
+    assertTrue(large.isDone());
+    assertTrue(small.isDone());
+    assertEquals(1, semaphore.getAvailable());
+  }
+
+  @Test
+  public void cancelledHeadLetsNextThrough() throws Exception {
+    final WeightedSemaphore semaphore = new WeightedSemaphore(10);
+    assertTrue(semaphore.tryAcquire(5));
+    final ListenableFuture<Void> large = semaphore.acquire(8);
+    final ListenableFuture<Void> small = semaphore.acquire(2);
+
+    large.cancel(false);
+    assertTrue(small.isDone());
+    assertEquals(3, semaphore.getAvailable());
+    assertEquals(0, semaphore.getWaiting());
+  }
+
+  @Test
+  public void oversizedIsRejected() throws Exception {
+    final WeightedSemaphore semaphore = new WeightedSemaphore(10, WeightedSemaphore.Oversized.REJECT);
+    assertFalse(semaphore.tryAcquire(11));
+    try {
+      semaphore.acquire(11).get();
+      fail("oversized request was granted");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedException);
+    }
+    assertEquals(10, semaphore.getAvailable());
+  }
+
+  @Test
+  public void oversizedTakesWholeCapacityWhenExclusive() throws Exception {
+    final WeightedSemaphore semaphore = new WeightedSemaphore(10, WeightedSemaphore.Oversized.EXCLUSIVE);
+    assertTrue(semaphore.tryAcquire(1));
+    final ListenableFuture<Void> oversized = semaphore.acquire(25);
+    assertFalse(oversized.isDone());
+
+    semaphore.release(1);
+    assertTrue(oversized.isDone());
+    assertEquals(0, semaphore.getAvailable());
+
+    semaphore.release(25);
+    assertEquals(10, semaphore.getAvailable());
+  }
+
+  @Test
+  public void synchronousResultsDoNotRecurse() throws Exception {
+    final WeightedSemaphore semaphore = new WeightedSemaphore(1);
+    assertTrue(semaphore.tryAcquire(1));
+
+    final AsyncFunction<Integer, Integer> identity = new AsyncFunction<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> apply(Integer input) {
+        return Futures.immediateFuture(input);
+      }
+    };
+    final List<ListenableFuture<Integer>> results = Lists.newArrayList();
+    for (int i = 0; i < 100000; i++) {
+      results.add(semaphore.submit(1, identity, i));
+    }
+
+    // each result completes as soon as it runs, releasing for the next in line
+    semaphore.release(1);
+    final List<Integer> values = Futures.allAsList(results).get();
+    for (int i = 0; i < values.size(); i++) {
+      assertEquals(i, values.get(i).intValue());
+    }
+    assertEquals(1, semaphore.getAvailable());
+  }
+
+}
@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.jfr;
+
+import com.google.common.collect.Lists;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.robotninjas.util.trace.Span;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class JfrTracerTest {
+
+  private static final String COMMAND = "org.robotninjas.util.Command";
+  private static final String TIMEOUT = "org.robotninjas.util.CommandTimeout";
+
+  @Test
+  public void timeoutsAreRecordedWithoutCommandEvents() throws Exception {
+    final JfrTracer tracer = new JfrTracer();
+    final List<RecordedEvent> events;
+    final Recording recording = new Recording();
+    try {
+      // library events are on by default, leave only the timeout on
+      recording.disable(COMMAND);
+      recording.enable(TIMEOUT);
+      recording.start();
+      tracer.command("ok").end(null);
+      tracer.command("slow").end(new TimeoutException());
+      recording.stop();
+      events = read(recording);
+    } finally {
+      recording.close();
+    }
+
+    final List<String> timedOut = Lists.newArrayList();
+    for (RecordedEvent event : events) {
+      assertEquals(TIMEOUT, event.getEventType().getName());
+      timedOut.add(event.getString("name"));
+    }
+    assertEquals(Lists.newArrayList("slow"), timedOut);
+  }
+
+  @Test
+  public void commandIsNotTimedWhenNothingRecordsIt() {
+    final Recording recording = new Recording();
+    try {
+      recording.disable(COMMAND);
+      recording.disable(TIMEOUT);
+      recording.start();
+      assertSame(Span.NOOP, new JfrTracer().command("cmd"));
+      recording.stop();
+    } finally {
+      recording.close();
+    }
+  }
+
+  private static List<RecordedEvent> read(Recording recording) throws Exception {
+    final File file = File.createTempFile("jfr-tracer", ".jfr");
+    try {
+      recording.dump(file.toPath());
+      final List<RecordedEvent> events = Lists.newArrayList();
+      for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+        if (event.getEventType().getName().startsWith("org.robotninjas.util.")) {
+          events.add(event);
+        }
+      }
+      return events;
+    } finally {
+      file.delete();
+    }
+  }
+
+}
@@ -0,0 +1,146 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.journal;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robotninjas.util.command.AsyncCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandJournalTest {
+
+  private static final int SEGMENT_SIZE = 4096;
+  // length, crc, type, id and a four byte intent
+  private static final int RECORD = 8 + 9 + 4;
+
+  private File directory;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = directory.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void intentsWithoutCompletionAreUnfinishedOnReopen() throws Exception {
+    final CommandJournal journal = CommandJournal.open(directory, SEGMENT_SIZE);
+    final JournalEntry first = journal.logIntent(intent(1)).get();
+    final JournalEntry second = journal.logIntent(intent(2)).get();
+    journal.logIntent(intent(3)).get();
+    journal.logCompletion(second);
+    journal.close();
+
+    final CommandJournal reopened = CommandJournal.open(directory, SEGMENT_SIZE);
+    final List<JournalEntry> unfinished = reopened.getUnfinished();
+    reopened.close();
+
+    assertEquals(2, unfinished.size());
+    assertEquals(first.getId(), unfinished.get(0).getId());
+    assertArrayEquals(intent(3), unfinished.get(1).getIntent());
+  }
+
+  @Test
+  public void recoveryStopsAtTornWrite() throws Exception {
+    final CommandJournal journal = CommandJournal.open(directory, SEGMENT_SIZE);
+    for (int i = 0; i < 3; i++) {
+      journal.logIntent(intent(i)).get();
+    }
+    journal.close();
+
+    // corrupt the intent of the third record, as if the write was torn
+    final RandomAccessFile file = new RandomAccessFile(firstSegment(), "rw");
+    try {
+      file.seek(2 * RECORD + RECORD - 1);
+      file.write(0x7f);
+    } finally {
+      file.close();
+    }
+
+    final CommandJournal reopened = CommandJournal.open(directory, SEGMENT_SIZE);
+    final List<JournalEntry> unfinished = reopened.getUnfinished();
+    assertEquals(2, unfinished.size());
+    assertArrayEquals(intent(0), unfinished.get(0).getIntent());
+    assertArrayEquals(intent(1), unfinished.get(1).getIntent());
+
+    // ids are not reused after the torn record
+    final JournalEntry next = reopened.logIntent(intent(9)).get();
+    assertTrue(next.getId() > unfinished.get(1).getId());
+    reopened.close();
+  }
+
+  @Test
+  public void replayLogsCompletions() throws Exception {
+    final CommandJournal journal = CommandJournal.open(directory, SEGMENT_SIZE);
+    journal.logIntent(intent(1)).get();
+    journal.logIntent(intent(2)).get();
+    journal.close();
+
+    final List<byte[]> replayed = Lists.newArrayList();
+    final CommandJournal reopened = CommandJournal.open(directory, SEGMENT_SIZE);
+    reopened.replay(new JournalDecoder() {
+      @Override
+      public AsyncCommand<?> decode(final byte[] intent) {
+        return new AsyncCommand<byte[]>() {
+          @Override
+          public ListenableFuture<byte[]> execute() {
+            replayed.add(intent);
+            return Futures.immediateFuture(intent);
+          }
+        };
+      }
+    }).get();
+    reopened.close();
+
+    assertEquals(2, replayed.size());
+    final CommandJournal last = CommandJournal.open(directory, SEGMENT_SIZE);
+    assertTrue(last.getUnfinished().isEmpty());
+    last.close();
+  }
+
+  private File firstSegment() throws IOException {
+    final File segment = new File(directory, String.format("journal-%019d.log", 0));
+    if (!segment.isFile()) {
+      throw new IOException("missing " + segment);
+    }
+    return segment;
+  }
+
+  private static byte[] intent(int value) {
+    return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+  }
+
+}
@@ -0,0 +1,167 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.pool;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robotninjas.util.command.AsyncCommand;
+import org.robotninjas.util.command.CommandBuilder;
+import org.robotninjas.util.concurrent.RejectedException;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncPoolTest {
+
+  private AsyncPool<Object> pool;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    pool = AsyncPool.builder(new CountingFactory()).withMaxSize(1).build();
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void leaseIsNotReissuedWhileCallableRunsAfterCancel() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    final AsyncCommand<Object> command = CommandBuilder.builder()
+      .withExecutor(executor)
+      .build(pool, new LeasedCallable<Object, Object>() {
+        @Override
+        public Object call(Object resource) {
+          running.countDown();
+          Uninterruptibles.awaitUninterruptibly(finish);
+          return resource;
+        }
+      });
+
+    final ListenableFuture<Object> result = command.execute();
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    result.cancel(true);
+
+    final ListenableFuture<Lease<Object>> next = pool.acquire();
+    assertFalse("lease reissued while still in use", next.isDone());
+
+    finish.countDown();
+    final Lease<Object> lease = next.get(5, TimeUnit.SECONDS);
+    assertEquals(1, pool.getSize());
+    lease.release();
+  }
+
+  @Test
+  public void leaseIsReleasedWhenCancelledBeforeRunning() throws Exception {
+    final List<Runnable> queued = newArrayList();
+    final AsyncCommand<Object> command = CommandBuilder.builder()
+      .withExecutor(new Executor() {
+        @Override
+        public void execute(Runnable task) {
+          queued.add(task);
+        }
+      })
+      .build(pool, new LeasedCallable<Object, Object>() {
+        @Override
+        public Object call(Object resource) {
+          fail("cancelled command ran");
+          return resource;
+        }
+      });
+
+    command.execute().cancel(false);
+    assertEquals(1, pool.getIdle());
+
+    // the executor gets to the task late, it must not run or release again
+    for (Runnable task : queued) {
+      task.run();
+    }
+    assertEquals(1, pool.getIdle());
+  }
+
+  @Test
+  public void waitersAreServedInOrder() throws Exception {
+    final Lease<Object> held = pool.acquire().get();
+    final ListenableFuture<Lease<Object>> first = pool.acquire();
+    final ListenableFuture<Lease<Object>> second = pool.acquire();
+    assertEquals(2, pool.getWaiting());
+
+    held.release();
+    assertTrue(first.isDone());
+    assertFalse(second.isDone());
+    assertSame(held.get(), first.get().get());
+  }
+
+  @Test
+  public void closeRejectsWaitersAndNewAcquires() throws Exception {
+    pool.acquire().get();
+    final ListenableFuture<Lease<Object>> waiting = pool.acquire();
+    pool.close();
+    assertRejected(waiting);
+    assertRejected(pool.acquire());
+  }
+
+  private static void assertRejected(ListenableFuture<?> future) throws InterruptedException {
+    try {
+      future.get();
+      fail("expected a rejection");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedException);
+    }
+  }
+
+  private static class CountingFactory implements ResourceFactory<Object> {
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    @Override
+    public ListenableFuture<Object> create() {
+      return Futures.<Object>immediateFuture(created.incrementAndGet());
+    }
+
+    @Override
+    public boolean validate(Object resource) {
+      return true;
+    }
+
+    @Override
+    public void destroy(Object resource) {
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/**
+ *    Copyright 2013 David Rusek <dave.rusek@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package org.robotninjas.util.remote;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteExecutorTest {
+
+  private RemoteWorker worker;
+  private RemoteExecutor remote;
+
+  @After
+  public void tearDown() {
+    if (remote != null) {
+      remote.close();
+    }
+    if (worker != null) {
+      worker.close();
+    }
+  }
+
+  @Test
+  public void workerListensOnLoopbackByDefault() throws Exception {
+    worker = RemoteWorker.start(0, 1);
+    assertTrue(worker.getAddress().getAddress().isLoopbackAddress());
+  }
+
+  @Test
+  public void resultsComeBackForEveryRequest() throws Exception {
+    worker = RemoteWorker.start(0, 4);
+    remote = RemoteExecutor.builder().withWorker(worker.getAddress()).withMaxInFlight(2).build();
+
+    final List<ListenableFuture<Integer>> results = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      results.add(remote.submit(new Square(i)));
+    }
+    final List<Integer> squares = Futures.allAsList(results).get(10, TimeUnit.SECONDS);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i * i, squares.get(i).intValue());
+    }
+  }
+
+  @Test
+  public void filteredCallablesAreNotRun() throws Exception {
+    worker = RemoteWorker.start(loopback(), 1, ObjectInputFilter.Config.createFilter("!" + Square.class.getName()));
+    remote = RemoteExecutor.builder().withWorker(worker.getAddress()).build();
+    try {
+      remote.submit(new Square(3)).get(10, TimeUnit.SECONDS);
+      fail("filtered callable ran");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof InvalidClassException);
+    }
+  }
+
+  @Test
+  public void buildFailsWhenAWorkerIsUnreachable() throws Exception {
+    worker = RemoteWorker.start(0, 1);
+    final InetSocketAddress unreachable = worker.getAddress();
+    worker.close();
+    worker = null;
+    try {
+      RemoteExecutor.builder().withWorker(unreachable).build();
+      fail("connected to a closed worker");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static InetSocketAddress loopback() throws Exception {
+    return new InetSocketAddress(InetAddress.getByName(null), 0);
+  }
+
+  private static class Square implements RemoteCallable<Integer> {
+
+    private final int value;
+
+    private Square(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public Integer call() {
+      return value * value;
+    }
+  }
+
+}